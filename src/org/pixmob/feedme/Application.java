@@ -20,6 +20,7 @@ import static org.pixmob.feedme.Constants.TAG;
 
 import org.pixmob.feedme.feature.Features;
 import org.pixmob.feedme.feature.StrictModeFeature;
+import org.pixmob.feedme.service.SyncScheduler;
 
 import android.util.Log;
 
@@ -36,5 +37,10 @@ public class Application extends android.app.Application {
             Log.i(TAG, "Enabling StrictMode features");
             Features.getFeature(StrictModeFeature.class).enable();
         }
+        
+        // Periodic synchronizations are scheduled once: an existing schedule
+        // is kept, so that synchronizations are not delayed every time the
+        // application is started.
+        SyncScheduler.ensureScheduled(this);
     }
 }
@@ -34,6 +34,75 @@ public final class Constants {
      * Preference key for setting how many new entries should be downloaded.
      */
     public static final String SP_KEY_NUMBER_OF_ITEMS = "numberOfItems";
+    /**
+     * Preference key for setting how many pages of entries may be downloaded
+     * by a single synchronization.
+     */
+    public static final String SP_KEY_MAX_PAGES_PER_SYNC = "maxPagesPerSync";
+    /**
+     * Internal preference key for storing the continuation of an unfinished
+     * synchronization.
+     */
+    public static final String SP_KEY_SYNC_CHECKPOINT = "syncCheckpoint";
+    /**
+     * Internal preference key for storing the last time the reading list was
+     * downloaded.
+     */
+    public static final String SP_KEY_LAST_READING_LIST_SYNC = "lastReadingListSync";
+    /**
+     * Preference key for setting how many days read entries are kept.
+     */
+    public static final String SP_KEY_MAX_ENTRY_AGE = "maxEntryAge";
+    /**
+     * Preference key for setting how many entries are kept for each feed.
+     * Unread entries are always kept.
+     */
+    public static final String SP_KEY_MAX_ENTRIES_PER_FEED = "maxEntriesPerFeed";
+    /**
+     * Preference key for keeping starred entries, whatever their age.
+     */
+    public static final String SP_KEY_KEEP_STARRED_ENTRIES = "keepStarredEntries";
+    /**
+     * Preference key for downloading full articles of unread entries, for
+     * offline reading. Articles are only downloaded on an unmetered network.
+     */
+    public static final String SP_KEY_PREFETCH_ARTICLES = "prefetchArticles";
+    /**
+     * Preference key for setting the interval between periodic
+     * synchronizations, in minutes. Periodic synchronizations are disabled if
+     * this value is <code>0</code>.
+     */
+    public static final String SP_KEY_SYNC_INTERVAL = "syncInterval";
+    /**
+     * Preference key for only running periodic synchronizations while the
+     * device is charging.
+     */
+    public static final String SP_KEY_SYNC_CHARGING_ONLY = "syncChargingOnly";
+    /**
+     * Preference key for only running periodic synchronizations on an
+     * unmetered network.
+     */
+    public static final String SP_KEY_SYNC_UNMETERED_ONLY = "syncUnmeteredOnly";
+    /**
+     * Developer preference key for using a local mock feed server instead of
+     * Google Reader.
+     */
+    public static final String SP_KEY_MOCK_BACKEND = "mockBackend";
+    /**
+     * Developer preference key for setting how many entries are served by the
+     * mock feed server.
+     */
+    public static final String SP_KEY_MOCK_ENTRY_COUNT = "mockEntryCount";
+    /**
+     * Developer preference key for setting the size of entry summaries served
+     * by the mock feed server.
+     */
+    public static final String SP_KEY_MOCK_BODY_SIZE = "mockBodySize";
+    /**
+     * Developer preference key for setting the mock feed server latency, in
+     * milliseconds.
+     */
+    public static final String SP_KEY_MOCK_LATENCY = "mockLatency";
     /**
      * Preferences file name.
      */
@@ -43,6 +43,12 @@ public final class Features {
             FEATURES.put(SharedPreferencesSaverFeature.class,
                 new LegacySharedPreferencesSaverFeature());
         }
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            FEATURES.put(WriteAheadLoggingFeature.class, new HoneycombWriteAheadLoggingFeature());
+        } else {
+            FEATURES.put(WriteAheadLoggingFeature.class, new LegacyWriteAheadLoggingFeature());
+        }
     }
     
     private Features() {
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.image;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.pixmob.feedme.R;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+import android.widget.ImageView;
+
+/**
+ * {@link ImageLoader} implementation for feed icons. Icons are keyed by feed:
+ * every row of the same feed shares the same image. Icons are only read from
+ * cache, since these images are downloaded by the synchronization service.
+ * The default feed icon is displayed until the feed icon is available. A feed
+ * icon missing from cache is not looked up again by this loader until
+ * {@link #clearMissing()} is called: rows of feeds without icons do not read
+ * the disk every time they are bound.
+ * @author Pixmob
+ */
+public class FaviconLoader extends ImageLoader {
+    private static final int MEMORY_CACHE_SIZE = 256 * 1024;
+    private final ImageFetcher fetcher;
+    /**
+     * Cache keys, indexed by feed identifiers: keys are not built every time
+     * an icon is bound.
+     */
+    private final SparseArray<String> keys = new SparseArray<String>(32);
+    /**
+     * Keys of icons which are not cached. This set is updated from the
+     * background thread.
+     */
+    private final Set<String> missingKeys = Collections.synchronizedSet(new HashSet<String>());
+    
+    public FaviconLoader(final Context context) {
+        super(MEMORY_CACHE_SIZE);
+        fetcher = ImageFetcher.newFaviconFetcher(context);
+    }
+    
+    /**
+     * Bind a feed icon to a view.
+     */
+    public void bind(ImageView view, long feedId) {
+        String key = keys.get((int) feedId);
+        if (key == null) {
+            key = ImageFetcher.getFaviconKey(feedId);
+            keys.put((int) feedId, key);
+        }
+        bind(view, missingKeys.contains(key) ? null : key, null);
+    }
+    
+    /**
+     * Look up icons missing from cache again, the next time they are bound.
+     * Icons are downloaded by synchronizations: this method is called when
+     * entries are reloaded.
+     */
+    public void clearMissing() {
+        missingKeys.clear();
+    }
+    
+    @Override
+    protected Bitmap loadImage(String key, String url) throws IOException {
+        final Bitmap image = fetcher.get(key, null, false);
+        if (image == null) {
+            missingKeys.add(key);
+        }
+        return image;
+    }
+    
+    @Override
+    protected void onImageLoaded(ImageView view, Bitmap image) {
+        view.setImageBitmap(image);
+    }
+    
+    @Override
+    protected void onImageMissing(ImageView view) {
+        view.setImageResource(R.drawable.feed);
+    }
+}
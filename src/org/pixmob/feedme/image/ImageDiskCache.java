@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.image;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Bounded cache for images, stored as files in a directory. When the cache is
+ * full, the least recently used images are deleted. The cache size is only
+ * tracked within an instance: a directory should be used by a single
+ * instance.
+ * @author Pixmob
+ */
+public class ImageDiskCache {
+    private static final int COMPRESSION_QUALITY = 85;
+    /**
+     * Suffix of files being written, which are not part of the cache.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Comparator<File> LAST_MODIFIED_COMPARATOR = new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+            final long t1 = f1.lastModified();
+            final long t2 = f2.lastModified();
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+    private final File dir;
+    private final long maxSize;
+    private final Bitmap.CompressFormat format;
+    /**
+     * Total size of cached files, in bytes, which is computed on first use.
+     */
+    private long size = -1;
+    
+    /**
+     * Create a new cache.
+     * @param dir directory where images are stored
+     * @param maxSize maximum size of cached images, in bytes
+     * @param format format of stored images
+     */
+    public ImageDiskCache(final File dir, final long maxSize, final Bitmap.CompressFormat format) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.format = format;
+    }
+    
+    /**
+     * Get a cached image file.
+     * @return <code>null</code> if there is no image for this key
+     */
+    public synchronized File get(String key) {
+        final File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        // The modification time is used to find the least recently used
+        // images.
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+    
+    /**
+     * Store an image.
+     */
+    public synchronized void put(String key, Bitmap image) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create cache directory: " + dir);
+        }
+        
+        // The image is written to a temporary file first: an image file is
+        // always complete.
+        final File file = getFile(key);
+        final File tmpFile = new File(dir, file.getName() + TMP_SUFFIX);
+        final OutputStream output = new FileOutputStream(tmpFile);
+        try {
+            image.compress(format, COMPRESSION_QUALITY, output);
+        } finally {
+            output.close();
+        }
+        
+        computeSize();
+        size -= file.length();
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Failed to store image: " + key);
+        }
+        size += file.length();
+        
+        if (size > maxSize) {
+            trim();
+        }
+    }
+    
+    /**
+     * Delete the least recently used images, until the cache is 3/4 full.
+     * The cache size is computed again from listed files, since files may
+     * have been deleted by the system.
+     */
+    private void trim() {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, LAST_MODIFIED_COMPARATOR);
+        size = 0;
+        for (final File file : files) {
+            if (!isTmpFile(file)) {
+                size += file.length();
+            }
+        }
+        
+        final long targetSize = maxSize * 3 / 4;
+        int count = 0;
+        for (int i = 0; i < files.length && size > targetSize; ++i) {
+            if (isTmpFile(files[i])) {
+                continue;
+            }
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+                count++;
+            }
+        }
+        
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Deleted " + count + " image(s) from cache " + dir);
+        }
+    }
+    
+    private void computeSize() {
+        if (size != -1) {
+            return;
+        }
+        size = 0;
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (!isTmpFile(file)) {
+                    size += file.length();
+                }
+            }
+        }
+    }
+    
+    private static boolean isTmpFile(File file) {
+        return file.getName().endsWith(TMP_SUFFIX);
+    }
+    
+    private File getFile(String key) {
+        return new File(dir, hash(key));
+    }
+    
+    /**
+     * Get a file name for a cache key.
+     */
+    private static String hash(String key) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes());
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+        
+        final StringBuilder buf = new StringBuilder(digest.length * 2);
+        for (final byte b : digest) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+                Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+}
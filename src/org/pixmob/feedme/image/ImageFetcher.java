@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.image;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.pixmob.feedme.R;
+import org.pixmob.feedme.net.NetworkClient;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Get images from an {@link ImageDiskCache}, or download them. Downloaded
+ * images are downsampled to a fixed size before they are stored: an image is
+ * decoded from the network once, and cached images are small. This class must
+ * not be used from the UI thread.
+ * @author Pixmob
+ */
+public class ImageFetcher {
+    private static final String THUMBNAILS_DIR = "thumbnails";
+    private static final long THUMBNAILS_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final String FAVICONS_DIR = "favicons";
+    private static final long FAVICONS_CACHE_SIZE = 256 * 1024;
+    /**
+     * Maximum length of a downloaded image, in bytes.
+     */
+    private static final int MAX_IMAGE_LENGTH = 512 * 1024;
+    /**
+     * Caches are shared by every instance, so that the size of a cache
+     * directory is tracked by a single object.
+     */
+    private static ImageDiskCache thumbnailCache;
+    private static ImageDiskCache faviconCache;
+    private final Context context;
+    private final ImageDiskCache cache;
+    private final int size;
+    private NetworkClient client;
+    
+    /**
+     * Create a new instance.
+     * @param cache where images are stored
+     * @param size maximum width and height of images, in pixels
+     */
+    public ImageFetcher(final Context context, final ImageDiskCache cache, final int size) {
+        this.context = context.getApplicationContext();
+        this.cache = cache;
+        this.size = size;
+    }
+    
+    /**
+     * Create an instance for entry thumbnails.
+     */
+    public static ImageFetcher newThumbnailFetcher(Context context) {
+        final int size = context.getResources().getDimensionPixelSize(R.dimen.entry_image_size);
+        return new ImageFetcher(context, getThumbnailCache(context), size);
+    }
+    
+    /**
+     * Create an instance for feed icons. Icons are keyed by feed, with
+     * {@link #getFaviconKey(long)}.
+     */
+    public static ImageFetcher newFaviconFetcher(Context context) {
+        final int size = context.getResources().getDimensionPixelSize(R.dimen.feed_icon_size);
+        return new ImageFetcher(context, getFaviconCache(context), size);
+    }
+    
+    private static synchronized ImageDiskCache getThumbnailCache(Context context) {
+        if (thumbnailCache == null) {
+            thumbnailCache = new ImageDiskCache(new File(context.getCacheDir(), THUMBNAILS_DIR),
+                    THUMBNAILS_CACHE_SIZE, Bitmap.CompressFormat.JPEG);
+        }
+        return thumbnailCache;
+    }
+    
+    private static synchronized ImageDiskCache getFaviconCache(Context context) {
+        if (faviconCache == null) {
+            // Icons are stored as PNG files, since these images are often
+            // transparent.
+            faviconCache = new ImageDiskCache(new File(context.getCacheDir(), FAVICONS_DIR),
+                    FAVICONS_CACHE_SIZE, Bitmap.CompressFormat.PNG);
+        }
+        return faviconCache;
+    }
+    
+    /**
+     * Get the cache key of a feed icon.
+     */
+    public static String getFaviconKey(long feedId) {
+        return "feed:" + feedId;
+    }
+    
+    /**
+     * Check if an image is cached.
+     */
+    public boolean isCached(String key) {
+        return cache.get(key) != null;
+    }
+    
+    /**
+     * Get an image.
+     * @param key image key in cache
+     * @param url image URL, used if the image is not cached
+     * @param download if <code>false</code>, the image is only read from
+     *            cache
+     * @return <code>null</code> if the image is not available
+     */
+    public Bitmap get(String key, String url, boolean download) throws IOException {
+        final File file = cache.get(key);
+        if (file != null) {
+            final Bitmap image = BitmapFactory.decodeFile(file.getPath());
+            if (image != null) {
+                return image;
+            }
+        }
+        if (!download || url == null) {
+            return null;
+        }
+        return download(key, url);
+    }
+    
+    /**
+     * Download an image, even if it is cached, and store it in cache.
+     * @param key image key in cache
+     * @param url image URL
+     */
+    public Bitmap download(String key, String url) throws IOException {
+        final File tmpFile = File.createTempFile("image", null, context.getCacheDir());
+        try {
+            final OutputStream output = new FileOutputStream(tmpFile);
+            try {
+                getClient().download(url, output, MAX_IMAGE_LENGTH);
+            } finally {
+                output.close();
+            }
+            
+            final Bitmap image = decode(tmpFile, size);
+            if (image == null) {
+                throw new IOException("Unsupported image: " + url);
+            }
+            cache.put(key, image);
+            return image;
+        } finally {
+            tmpFile.delete();
+        }
+    }
+    
+    /**
+     * Release network resources.
+     */
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+    
+    private synchronized NetworkClient getClient() {
+        if (client == null) {
+            client = new NetworkClient(context);
+        }
+        return client;
+    }
+    
+    /**
+     * Decode an image file, downsampled to a maximum size. The image is
+     * sampled while it is decoded, so that a large image is never fully
+     * loaded in memory.
+     * @return <code>null</code> if the image cannot be decoded
+     */
+    private static Bitmap decode(File file, int size) {
+        final BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+        
+        int sampleSize = 1;
+        while (opts.outWidth / (sampleSize * 2) >= size
+                && opts.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sampleSize;
+        final Bitmap sampled = BitmapFactory.decodeFile(file.getPath(), opts);
+        if (sampled == null) {
+            return null;
+        }
+        
+        final int width = sampled.getWidth();
+        final int height = sampled.getHeight();
+        if (width <= size && height <= size) {
+            return sampled;
+        }
+        final float scale = (float) size / Math.max(width, height);
+        final Bitmap scaled = Bitmap.createScaledBitmap(sampled, Math.max(1,
+            Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+}
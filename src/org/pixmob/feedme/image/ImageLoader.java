@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.image;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+
+/**
+ * Load images into {@link ImageView} instances. Images are loaded by a
+ * background thread, and kept in a memory cache with a fixed size. When a
+ * view is bound to another image, as a list row is recycled, the previous
+ * request for this view is canceled. Except for {@link #loadImage(String, String)},
+ * methods must be called from the UI thread.
+ * @author Pixmob
+ */
+public abstract class ImageLoader {
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread("Feedme/ImageLoader") {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            };
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    private final Handler handler = new Handler();
+    private final Map<ImageView, Request> pendingRequests = new HashMap<ImageView, Request>(16);
+    /**
+     * Keys of images which failed to load: these images are not requested
+     * again.
+     */
+    private final Set<String> failedKeys = new HashSet<String>();
+    /**
+     * Memory cache, in access order: the least recently used image is the
+     * first one.
+     */
+    private final LinkedHashMap<String, Bitmap> memoryCache = new LinkedHashMap<String, Bitmap>(
+            32, 0.75f, true);
+    private final int maxMemoryCacheSize;
+    private int memoryCacheSize;
+    
+    /**
+     * Create a new instance.
+     * @param maxMemoryCacheSize memory cache size, in bytes
+     */
+    public ImageLoader(final int maxMemoryCacheSize) {
+        this.maxMemoryCacheSize = maxMemoryCacheSize;
+    }
+    
+    /**
+     * Load an image from a background thread.
+     * @param key image key
+     * @param url image URL
+     * @return <code>null</code> if the image is not available yet: the image
+     *         is requested again the next time it is bound
+     */
+    protected abstract Bitmap loadImage(String key, String url) throws IOException;
+    
+    /**
+     * Display a loaded image.
+     */
+    protected void onImageLoaded(ImageView view, Bitmap image) {
+        view.setImageBitmap(image);
+        view.setVisibility(View.VISIBLE);
+    }
+    
+    /**
+     * Update a view when there is no image, or while the image is loading.
+     */
+    protected void onImageMissing(ImageView view) {
+        view.setImageDrawable(null);
+        view.setVisibility(View.GONE);
+    }
+    
+    /**
+     * Bind an image to a view.
+     * @param view view to update
+     * @param key image key, or <code>null</code> if there is no image
+     * @param url image URL
+     */
+    public void bind(ImageView view, String key, String url) {
+        final Request pendingRequest = pendingRequests.remove(view);
+        if (pendingRequest != null) {
+            if (pendingRequest.key.equals(key)) {
+                // This image is already being loaded.
+                pendingRequests.put(view, pendingRequest);
+                return;
+            }
+            pendingRequest.canceled = true;
+        }
+        
+        final Bitmap image = key == null ? null : getCachedImage(key);
+        if (image != null) {
+            onImageLoaded(view, image);
+            return;
+        }
+        onImageMissing(view);
+        if (key == null || failedKeys.contains(key)) {
+            return;
+        }
+        
+        final Request request = new Request(view, key, url);
+        pendingRequests.put(view, request);
+        executor.execute(request);
+    }
+    
+    /**
+     * Cancel pending requests, and stop the background thread.
+     */
+    public void close() {
+        for (final Request request : pendingRequests.values()) {
+            request.canceled = true;
+        }
+        pendingRequests.clear();
+        executor.shutdownNow();
+    }
+    
+    private Bitmap getCachedImage(String key) {
+        synchronized (memoryCache) {
+            return memoryCache.get(key);
+        }
+    }
+    
+    private void putCachedImage(String key, Bitmap image) {
+        final int imageSize = image.getRowBytes() * image.getHeight();
+        synchronized (memoryCache) {
+            final Bitmap oldImage = memoryCache.put(key, image);
+            if (oldImage != null) {
+                memoryCacheSize -= oldImage.getRowBytes() * oldImage.getHeight();
+            }
+            memoryCacheSize += imageSize;
+            
+            // Images are not recycled when they are removed: these images
+            // may still be displayed.
+            final Iterator<Bitmap> i = memoryCache.values().iterator();
+            while (memoryCacheSize > maxMemoryCacheSize && i.hasNext()) {
+                final Bitmap eldest = i.next();
+                memoryCacheSize -= eldest.getRowBytes() * eldest.getHeight();
+                i.remove();
+            }
+        }
+    }
+    
+    /**
+     * Request for loading an image into a view.
+     * @author Pixmob
+     */
+    private class Request implements Runnable {
+        public final ImageView view;
+        public final String key;
+        public final String url;
+        public volatile boolean canceled;
+        
+        public Request(final ImageView view, final String key, final String url) {
+            this.view = view;
+            this.key = key;
+            this.url = url;
+        }
+        
+        @Override
+        public void run() {
+            if (canceled) {
+                return;
+            }
+            
+            Bitmap image = getCachedImage(key);
+            boolean failed = false;
+            if (image == null) {
+                try {
+                    image = loadImage(key, url);
+                } catch (IOException e) {
+                    failed = true;
+                    if (DEVELOPER_MODE) {
+                        Log.d(TAG, "Failed to load image: " + url, e);
+                    }
+                }
+                if (image != null) {
+                    putCachedImage(key, image);
+                }
+            }
+            
+            final Bitmap loadedImage = image;
+            final boolean loadFailed = failed;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (canceled || pendingRequests.get(view) != Request.this) {
+                        return;
+                    }
+                    pendingRequests.remove(view);
+                    if (loadedImage != null) {
+                        onImageLoaded(view, loadedImage);
+                    } else if (loadFailed) {
+                        failedKeys.add(key);
+                    }
+                }
+            });
+        }
+    }
+}
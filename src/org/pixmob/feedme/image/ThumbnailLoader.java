@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.image;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+/**
+ * {@link ImageLoader} implementation for entry thumbnails. Thumbnails are
+ * keyed by image URL. Most thumbnails are downloaded by the synchronization
+ * service: missing thumbnails are downloaded when they are displayed.
+ * @author Pixmob
+ */
+public class ThumbnailLoader extends ImageLoader {
+    private static final int MEMORY_CACHE_SIZE = 2 * 1024 * 1024;
+    private final ImageFetcher fetcher;
+    
+    public ThumbnailLoader(final Context context) {
+        super(MEMORY_CACHE_SIZE);
+        fetcher = ImageFetcher.newThumbnailFetcher(context);
+    }
+    
+    /**
+     * Bind an entry thumbnail to a view.
+     * @param url image URL, or <code>null</code> if the entry has no image
+     */
+    public void bind(ImageView view, String url) {
+        bind(view, url, url);
+    }
+    
+    @Override
+    protected Bitmap loadImage(String key, String url) throws IOException {
+        return fetcher.get(key, url, true);
+    }
+    
+    @Override
+    public void close() {
+        super.close();
+        fetcher.close();
+    }
+}
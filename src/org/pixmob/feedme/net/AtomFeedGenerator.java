@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.net;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Generate synthetic Atom feeds, using the Google Reader format. Generated
+ * feeds are used for testing and measuring the application without a real
+ * feed service.
+ * @author Pixmob
+ */
+class AtomFeedGenerator {
+    private static final String LOREM = "Lorem ipsum dolor sit amet, consectetur "
+            + "adipiscing elit. Curabitur sodales lig\u00e9la in libero caf\u00e9 sed "
+            + "dignissim lacinia nunc. ";
+    /**
+     * Publication date of the most recent entry: October 1st, 2011.
+     */
+    private static final long FIRST_PUBLISHED = 1317470400000L;
+    /**
+     * Time between two entries, in milliseconds.
+     */
+    private static final long PUBLICATION_INTERVAL = 5 * 60 * 1000;
+    private final int bodySize;
+    private final int feedCount;
+    private final SimpleDateFormat dateFormat;
+    
+    /**
+     * Create a new generator.
+     * @param bodySize number of characters in every entry summary
+     * @param feedCount number of distinct feeds entries come from
+     */
+    public AtomFeedGenerator(final int bodySize, final int feedCount) {
+        this.bodySize = bodySize;
+        this.feedCount = Math.max(1, feedCount);
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+    
+    /**
+     * Write a feed page. Entries are numbered from the most recent one.
+     * @param out where the feed is written to
+     * @param encoding character encoding declared by the feed: it must match
+     *            the encoding used by <code>out</code>
+     * @param offset number of the first entry in the page
+     * @param count number of entries in the page
+     * @param continuation continuation string for the next page, or
+     *            <code>null</code> if this is the last page
+     */
+    public void write(Writer out, String encoding, int offset, int count, String continuation)
+            throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"");
+        out.write(encoding);
+        out.write("\"?>\n<feed xmlns:gr=\"http://www.google.com/schemas/reader/atom/\" "
+                + "xmlns=\"http://www.w3.org/2005/Atom\">\n"
+                + "<id>tag:google.com,2005:reader/user/-/state/com.google/reading-list</id>\n"
+                + "<title>Reading list</title>\n");
+        if (continuation != null) {
+            out.write("<gr:continuation>");
+            out.write(continuation);
+            out.write("</gr:continuation>\n");
+        }
+        
+        final StringBuilder summary = new StringBuilder(bodySize + LOREM.length());
+        for (int i = offset; i < offset + count; ++i) {
+            final int feed = i % feedCount;
+            final String published = dateFormat.format(new Date(FIRST_PUBLISHED - i
+                    * PUBLICATION_INTERVAL));
+            
+            out.write("<entry>\n<id>tag:google.com,2005:reader/item/");
+            out.write(String.format("%016x", i));
+            out.write("</id>\n<category term=\"user/-/state/com.google/reading-list\" "
+                    + "scheme=\"http://www.google.com/reader/\" label=\"reading-list\"/>\n");
+            if (i % 3 == 0) {
+                out.write("<category term=\"user/-/state/com.google/read\" "
+                        + "scheme=\"http://www.google.com/reader/\" label=\"read\"/>\n");
+            }
+            out.write("<title type=\"html\">Entry number ");
+            out.write(String.valueOf(i));
+            out.write("</title>\n<published>");
+            out.write(published);
+            out.write("</published>\n<updated>");
+            out.write(published);
+            out.write("</updated>\n<link rel=\"alternate\" href=\"http://feed");
+            out.write(String.valueOf(feed));
+            out.write(".example.com/entry/");
+            out.write(String.valueOf(i));
+            out.write("\" type=\"text/html\"/>\n<summary type=\"html\">");
+            
+            summary.setLength(0);
+            summary.append("&lt;p&gt;&lt;img src=\"http://feed").append(feed)
+                    .append(".example.com/image/").append(i).append(".png\"/&gt;");
+            while (summary.length() < bodySize) {
+                summary.append(LOREM);
+            }
+            summary.append("&lt;/p&gt;");
+            out.write(summary.toString());
+            
+            out.write("</summary>\n<author><name>Author</name></author>\n"
+                    + "<source gr:stream-id=\"feed/http://feed");
+            out.write(String.valueOf(feed));
+            out.write(".example.com/rss\">\n<id>tag:google.com,2005:reader/feed/http://feed");
+            out.write(String.valueOf(feed));
+            out.write(".example.com/rss</id>\n<title type=\"html\">Feed ");
+            out.write(String.valueOf(feed));
+            out.write("</title>\n<link rel=\"alternate\" href=\"http://feed");
+            out.write(String.valueOf(feed));
+            out.write(".example.com/\" type=\"text/html\"/>\n</source>\n</entry>\n");
+        }
+        out.write("</feed>\n");
+        out.flush();
+    }
+}
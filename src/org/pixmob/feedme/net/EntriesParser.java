@@ -19,9 +19,8 @@ import static org.pixmob.feedme.Constants.TAG;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.pixmob.feedme.provider.FeedmeContract.Entries;
 import org.xmlpull.v1.XmlPullParser;
@@ -32,10 +31,49 @@ import android.util.Log;
 import android.util.Xml;
 
 /**
- * Parse entries from a Google Reader Atom feed.
+ * Parse entries from a Google Reader Atom feed. This parser is the hot loop of
+ * every synchronization: element names are dispatched with a single map
+ * lookup, text is only read from elements which are stored, and dates are
+ * parsed without any allocation.
  * @author Pixmob
  */
 public class EntriesParser {
+    private static final int UNKNOWN = 0;
+    private static final int ENTRY = 1;
+    private static final int SOURCE = 2;
+    private static final int LINK = 3;
+    private static final int CATEGORY = 4;
+    private static final int ID = 5;
+    private static final int TITLE = 6;
+    private static final int PUBLISHED = 7;
+    private static final int SUMMARY = 8;
+    private static final int CONTINUATION = 9;
+    /**
+     * Namespace for Google Reader elements and attributes.
+     */
+    private static final String GR_NAMESPACE = "http://www.google.com/schemas/reader/atom/";
+    /**
+     * Namespace for Atom elements.
+     */
+    private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+    /**
+     * Atom elements, by name. Elements from other namespaces (such as
+     * "media:title") share names with Atom elements, and must not be mistaken
+     * for them.
+     */
+    private static final Map<String, Integer> ELEMENTS = new HashMap<String, Integer>(16);
+    static {
+        ELEMENTS.put("entry", ENTRY);
+        ELEMENTS.put("source", SOURCE);
+        ELEMENTS.put("link", LINK);
+        ELEMENTS.put("category", CATEGORY);
+        ELEMENTS.put("id", ID);
+        ELEMENTS.put("title", TITLE);
+        ELEMENTS.put("published", PUBLISHED);
+        ELEMENTS.put("content", SUMMARY);
+        ELEMENTS.put("summary", SUMMARY);
+    }
+    
     public void parse(InputStream input, String encoding, Results results) throws IOException {
         try {
             doParse(input, encoding, results);
@@ -47,91 +85,224 @@ public class EntriesParser {
         }
     }
     
+    private static int getElement(XmlPullParser parser) {
+        final String namespace = parser.getNamespace();
+        final String name = parser.getName();
+        if (ATOM_NAMESPACE.equals(namespace)) {
+            final Integer element = ELEMENTS.get(name);
+            return element == null ? UNKNOWN : element;
+        }
+        if (GR_NAMESPACE.equals(namespace) && "continuation".equals(name)) {
+            return CONTINUATION;
+        }
+        return UNKNOWN;
+    }
+    
     private void doParse(InputStream input, String encoding, Results results) throws IOException {
         final XmlPullParser parser = Xml.newPullParser();
         try {
+            // Elements are recognized by their namespace: Atom elements, and
+            // Google Reader elements such as "gr:continuation".
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
             parser.setInput(input, encoding);
         } catch (XmlPullParserException e) {
             throw new IOException("Failed to configure Atom feed parser", e);
         }
         
-        final SimpleDateFormat dateParser = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        dateParser.setLenient(true);
-        
         ContentValues entry = null;
-        String currentTag = null;
+        // Element whose text is read, or UNKNOWN if the text is ignored.
+        int textElement = UNKNOWN;
         boolean inEntry = false;
         boolean inSource = false;
         try {
             for (int eventType; (eventType = parser.next()) != XmlPullParser.END_DOCUMENT;) {
                 if (eventType == XmlPullParser.START_TAG) {
-                    currentTag = parser.getName();
-                    if ("entry".equals(currentTag)) {
-                        entry = new ContentValues();
-                        inEntry = true;
-                    } else if ("link".equals(currentTag) && inEntry && !inSource) {
-                        // Get the original entry link.
-                        final String linkType = parser.getAttributeValue(null, "rel");
-                        if ("alternate".equals(linkType)) {
-                            final String link = parser.getAttributeValue(null, "href");
-                            entry.put(Entries.URL, link);
-                        }
-                    } else if ("source".equals(currentTag)) {
-                        inSource = true;
-                    } else if ("category".equals(currentTag) && inEntry) {
-                        // Skip read entries.
-                        final String category = parser.getAttributeValue(null, "label");
-                        if ("read".equals(category)) {
-                            entry.put(Entries.STATUS, Entries.STATUS_READ);
-                        }
+                    textElement = UNKNOWN;
+                    final int element = getElement(parser);
+                    switch (element) {
+                        case ENTRY:
+                            entry = new ContentValues();
+                            inEntry = true;
+                            break;
+                        case SOURCE:
+                            inSource = inEntry;
+                            if (inSource) {
+                                // Get the feed identifier.
+                                final String streamId = parser.getAttributeValue(GR_NAMESPACE,
+                                    "stream-id");
+                                if (streamId != null) {
+                                    entry.put(Entries.SOURCE_ID, streamId);
+                                }
+                            }
+                            break;
+                        case LINK:
+                            // Get the original entry link.
+                            if (inEntry && !inSource
+                                    && "alternate".equals(parser.getAttributeValue(null, "rel"))) {
+                                entry.put(Entries.URL, parser.getAttributeValue(null, "href"));
+                            }
+                            break;
+                        case CATEGORY:
+                            // Skip read entries.
+                            if (inEntry && "read".equals(parser.getAttributeValue(null, "label"))) {
+                                entry.put(Entries.STATUS, Entries.STATUS_READ);
+                            }
+                            break;
+                        case ID:
+                        case PUBLISHED:
+                        case SUMMARY:
+                            if (inEntry && !inSource) {
+                                textElement = element;
+                            }
+                            break;
+                        case TITLE:
+                            if (inEntry) {
+                                textElement = TITLE;
+                            }
+                            break;
+                        case CONTINUATION:
+                            textElement = CONTINUATION;
+                            break;
                     }
                 } else if (eventType == XmlPullParser.END_TAG) {
-                    final String tag = parser.getName();
-                    if ("entry".equals(tag) && inEntry) {
-                        results.entries.add(entry);
-                        inEntry = false;
-                    } else if ("source".equals(tag) && inEntry && inSource) {
-                        inSource = false;
+                    textElement = UNKNOWN;
+                    switch (getElement(parser)) {
+                        case ENTRY:
+                            if (inEntry) {
+                                results.handler.onEntry(entry);
+                                entry = null;
+                                inEntry = false;
+                            }
+                            break;
+                        case SOURCE:
+                            inSource = false;
+                            break;
                     }
-                } else if (eventType == XmlPullParser.TEXT) {
-                    if ("id".equals(currentTag) && inEntry && !inSource) {
-                        // Get the Google Reader entry identifier.
-                        final String grid = parser.getText().trim();
-                        entry.put(Entries.GRID, grid);
-                    } else if ("title".equals(currentTag) && inEntry && inSource) {
-                        // Get the feed name.
-                        final String source = parser.getText().trim();
-                        entry.put(Entries.SOURCE, source);
-                    } else if ("published".equals(currentTag) && inEntry) {
-                        // Parse the time when this entry was published.
-                        final String dateStr = parser.getText().trim();
-                        long published;
-                        try {
-                            published = dateParser.parse(dateStr).getTime();
-                        } catch (ParseException e) {
-                            published = System.currentTimeMillis();
-                            Log.w(TAG, "Failed to parse entry publication date: " + dateStr, e);
-                        }
-                        entry.put(Entries.PUBLISHED, published);
-                    } else if ("title".equals(currentTag) && inEntry && !inSource) {
-                        // Get the entry title.
-                        final String title = parser.getText().trim();
-                        entry.put(Entries.TITLE, title);
-                    } else if (("content".equals(currentTag) || "summary".equals(currentTag))
-                            && inEntry) {
-                        // Get the entry summary.
-                        final String summary = parser.getText().trim();
-                        entry.put(Entries.SUMMARY, summary);
-                    } else if ("continuation".equals(currentTag)) {
-                        // Get the string used for continuation process.
-                        final String cont = parser.getText().trim();
-                        results.continuation = cont;
+                } else if (eventType == XmlPullParser.TEXT && textElement != UNKNOWN) {
+                    final String text = parser.getText().trim();
+                    switch (textElement) {
+                        case ID:
+                            // Get the Google Reader entry identifier.
+                            entry.put(Entries.GRID, text);
+                            break;
+                        case TITLE:
+                            // Get the feed name, or the entry title.
+                            entry.put(inSource ? Entries.SOURCE : Entries.TITLE, text);
+                            break;
+                        case PUBLISHED:
+                            // Parse the time when this entry was published.
+                            long published = parseTimestamp(text);
+                            if (published == -1) {
+                                published = System.currentTimeMillis();
+                                Log.w(TAG, "Failed to parse entry publication date: " + text);
+                            }
+                            entry.put(Entries.PUBLISHED, published);
+                            break;
+                        case SUMMARY:
+                            // Get the entry summary.
+                            entry.put(Entries.SUMMARY, text);
+                            break;
+                        case CONTINUATION:
+                            // Get the string used for continuation process.
+                            results.continuation = text;
+                            break;
                     }
                 }
             }
         } catch (XmlPullParserException e) {
             throw new IOException("Failed to parse Atom feed", e);
         }
+        results.handler.onEndOfFeed();
+    }
+    
+    /**
+     * Parse a RFC 3339 timestamp, such as <code>2011-10-01T12:00:00Z</code>
+     * or <code>2011-10-01T14:00:00.250+02:00</code>.
+     * @return the number of milliseconds since January 1st, 1970 (UTC), or
+     *         <code>-1</code> if the timestamp is invalid
+     */
+    static long parseTimestamp(String str) {
+        final int len = str.length();
+        if (len < 20 || str.charAt(4) != '-' || str.charAt(7) != '-'
+                || (str.charAt(10) != 'T' && str.charAt(10) != 't') || str.charAt(13) != ':'
+                || str.charAt(16) != ':') {
+            return -1;
+        }
+        final int year = parseDigits(str, 0, 4);
+        final int month = parseDigits(str, 5, 2);
+        final int day = parseDigits(str, 8, 2);
+        final int hour = parseDigits(str, 11, 2);
+        final int minute = parseDigits(str, 14, 2);
+        final int second = parseDigits(str, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        
+        // Optional fraction of second: only milliseconds are kept.
+        int i = 19;
+        int millis = 0;
+        if (str.charAt(i) == '.') {
+            int scale = 100;
+            for (i++; i < len && str.charAt(i) >= '0' && str.charAt(i) <= '9'; i++) {
+                millis += (str.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+            if (i == len) {
+                return -1;
+            }
+        }
+        
+        // Time zone offset.
+        final int offsetMinutes;
+        final char zone = str.charAt(i);
+        if ((zone == 'Z' || zone == 'z') && i + 1 == len) {
+            offsetMinutes = 0;
+        } else if ((zone == '+' || zone == '-') && i + 6 == len && str.charAt(i + 3) == ':') {
+            final int offsetHours = parseDigits(str, i + 1, 2);
+            final int offsetMins = parseDigits(str, i + 4, 2);
+            if (offsetHours < 0 || offsetMins < 0) {
+                return -1;
+            }
+            final int offset = offsetHours * 60 + offsetMins;
+            offsetMinutes = zone == '+' ? offset : -offset;
+        } else {
+            return -1;
+        }
+        
+        final long days = daysFromCivil(year, month, day);
+        final long seconds = days * 86400 + hour * 3600 + minute * 60 + second
+                - offsetMinutes * 60;
+        return seconds * 1000 + millis;
+    }
+    
+    /**
+     * Parse a positive number of <code>count</code> digits.
+     * @return <code>-1</code> if a character is not a digit
+     */
+    private static int parseDigits(String str, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; ++i) {
+            final char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+    
+    /**
+     * Get the number of days since January 1st, 1970 for a date in the
+     * proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
     }
     
     /**
@@ -139,7 +310,24 @@ public class EntriesParser {
      * @author Pixmob
      */
     public static class Results {
-        public Collection<ContentValues> entries;
+        public EntryHandler handler;
         public String continuation;
     }
+    
+    /**
+     * Handler for parsed entries. Entries are given to the handler as soon as
+     * they are parsed, while the Atom feed is still being read.
+     * @author Pixmob
+     */
+    public static interface EntryHandler {
+        /**
+         * This method is called when an entry is parsed.
+         */
+        void onEntry(ContentValues entry) throws IOException;
+        
+        /**
+         * This method is called when every entry of the feed was parsed.
+         */
+        void onEndOfFeed() throws IOException;
+    }
 }
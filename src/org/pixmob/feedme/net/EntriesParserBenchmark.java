@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.net;
+
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Measure {@link EntriesParser} performance. Generated Atom feeds of various
+ * sizes and encodings are parsed, with or without Gzip compression (through
+ * {@link GzipResponseInterceptor}), and throughput and allocations are
+ * reported for each case.
+ * @author Pixmob
+ */
+public class EntriesParserBenchmark {
+    private static final int[] ENTRY_COUNTS = { 10, 100, 1000, 10000 };
+    private static final int[] BODY_SIZES = { 200, 8000 };
+    private static final String[] ENCODINGS = { "UTF-8", "ISO-8859-1" };
+    /**
+     * Minimum number of entries parsed for each case, so that small feeds are
+     * parsed enough times to get significant results.
+     */
+    private static final int MIN_ENTRIES_PER_CASE = 20000;
+    private static final int MIN_ITERATIONS = 3;
+    private static final int WARMUP_ITERATIONS = 2;
+    private final File workDir;
+    private final EntriesParser parser = new EntriesParser();
+    
+    /**
+     * Create a new benchmark.
+     * @param workDir directory where generated feeds are written to
+     */
+    public EntriesParserBenchmark(final File workDir) {
+        this.workDir = workDir;
+    }
+    
+    /**
+     * Run every benchmark case. Results are written to the log.
+     */
+    public void run() throws IOException {
+        Log.i(TAG, "Parser benchmark: entries, body size, encoding, gzip, "
+                + "feed bytes, ms/op, entries/s, allocs/op, allocated bytes/op");
+        for (final int entryCount : ENTRY_COUNTS) {
+            for (final int bodySize : BODY_SIZES) {
+                for (final String encoding : ENCODINGS) {
+                    run(entryCount, bodySize, encoding, false);
+                    run(entryCount, bodySize, encoding, true);
+                }
+            }
+        }
+    }
+    
+    private void run(int entryCount, int bodySize, String encoding, boolean gzip)
+            throws IOException {
+        // Feeds are generated to a file, since the largest ones would not fit
+        // in the application heap.
+        final File feedFile = new File(workDir, "benchmark-feed.xml");
+        generateFeed(feedFile, entryCount, bodySize, encoding, gzip);
+        
+        final CountingHandler handler = new CountingHandler();
+        final EntriesParser.Results results = new EntriesParser.Results();
+        results.handler = handler;
+        
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            parse(feedFile, encoding, gzip, results);
+        }
+        
+        final int iterations = Math.max(MIN_ITERATIONS, MIN_ENTRIES_PER_CASE / entryCount);
+        handler.entryCount = 0;
+        System.gc();
+        
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            parse(feedFile, encoding, gzip, results);
+        }
+        final long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        
+        if (handler.entryCount != entryCount * iterations) {
+            throw new IOException("Unexpected number of parsed entries: " + handler.entryCount);
+        }
+        
+        final double msPerOp = elapsed / 1e6 / iterations;
+        final double entriesPerSecond = handler.entryCount / (elapsed / 1e9);
+        Log.i(TAG, "Parser benchmark: " + entryCount + ", " + bodySize + ", " + encoding + ", "
+                + gzip + ", " + feedFile.length() + ", " + String.format("%.2f", msPerOp)
+                + ", " + Math.round(entriesPerSecond) + ", "
+                + Debug.getThreadAllocCount() / iterations + ", "
+                + Debug.getThreadAllocSize() / iterations);
+        
+        feedFile.delete();
+    }
+    
+    private void parse(File feedFile, String encoding, boolean gzip,
+            EntriesParser.Results results) throws IOException {
+        final InputStream input = new FileInputStream(feedFile);
+        if (!gzip) {
+            parser.parse(input, encoding, results);
+            return;
+        }
+        
+        // Compressed feeds are decoded the same way as network responses.
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(input);
+        entity.setContentEncoding("gzip");
+        final BasicHttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        resp.setEntity(entity);
+        try {
+            new GzipResponseInterceptor().process(resp, null);
+        } catch (HttpException e) {
+            input.close();
+            throw new IOException("Failed to decode compressed feed", e);
+        }
+        parser.parse(resp.getEntity().getContent(), encoding, results);
+    }
+    
+    private static void generateFeed(File feedFile, int entryCount, int bodySize,
+            String encoding, boolean gzip) throws IOException {
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(feedFile), 8192);
+        if (gzip) {
+            output = new GZIPOutputStream(output);
+        }
+        final Writer writer = new OutputStreamWriter(output, encoding);
+        try {
+            new AtomFeedGenerator(bodySize, 20).write(writer, encoding, 0, entryCount, null);
+        } finally {
+            writer.close();
+        }
+    }
+    
+    /**
+     * {@link EntriesParser.EntryHandler} implementation counting parsed
+     * entries.
+     * @author Pixmob
+     */
+    private static class CountingHandler implements EntriesParser.EntryHandler {
+        public int entryCount;
+        
+        @Override
+        public void onEntry(ContentValues entry) {
+            entryCount++;
+        }
+        
+        @Override
+        public void onEndOfFeed() {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.net;
+
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Remote service providing feed entries. A backend defines where requests are
+ * sent, how they are authenticated and how entries are paged.
+ * @author Pixmob
+ */
+public interface FeedBackend {
+    /**
+     * Get the URI for downloading a page of unread entries as an Atom feed.
+     * @param count maximum number of entries in the page
+     * @param continuation continuation string from the previous page, or
+     *            <code>null</code> for the first page
+     */
+    String getUnreadEntriesUri(int count, String continuation);
+    
+    /**
+     * Get the URI for downloading the most recent unread entries of a single
+     * feed as an Atom feed.
+     * @param streamId the feed stream identifier
+     * @param count maximum number of entries
+     * @param publishedAfter only entries published since this time are
+     *            returned, in milliseconds, or <code>0</code> for any entry
+     */
+    String getFeedEntriesUri(String streamId, int count, long publishedAfter);
+    
+    /**
+     * Get the URI for getting a token, which must be sent with edit requests.
+     * @return <code>null</code> if edit requests do not require a token
+     */
+    String getEditTokenUri();
+    
+    /**
+     * Create a request for setting or clearing a state of several entries.
+     * @param state {@link org.pixmob.feedme.provider.FeedmeContract.Outbox#STATE_READ}
+     *            or
+     *            {@link org.pixmob.feedme.provider.FeedmeContract.Outbox#STATE_STARRED}
+     * @param enabled <code>true</code> to set the state, <code>false</code> to
+     *            clear it
+     * @param grids Google Reader identifiers of the entries
+     * @param token token returned by {@link #getEditTokenUri()}, if any
+     */
+    HttpUriRequest createEditRequest(int state, boolean enabled, List<String> grids,
+            String token);
+    
+    /**
+     * Add authentication data to a request.
+     * @throws NetworkClientException if the user is not authenticated
+     */
+    void authenticate(HttpUriRequest req) throws NetworkClientException;
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.net;
+
+import static org.pixmob.feedme.Constants.SP_KEY_AUTH_TOKEN;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicNameValuePair;
+import org.pixmob.feedme.provider.FeedmeContract.Outbox;
+
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+/**
+ * {@link FeedBackend} implementation for Google Reader.
+ * @author Pixmob
+ */
+class GoogleReaderBackend implements FeedBackend {
+    private static final String SERVICE_URI = "http://www.google.com/reader";
+    private static final String READ_TAG = "user/-/state/com.google/read";
+    private static final String STARRED_TAG = "user/-/state/com.google/starred";
+    private final String clientId;
+    private final SharedPreferences prefs;
+    
+    public GoogleReaderBackend(final String clientId, final SharedPreferences prefs) {
+        this.clientId = clientId;
+        this.prefs = prefs;
+    }
+    
+    @Override
+    public String getUnreadEntriesUri(int count, String continuation) {
+        final StringBuilder buf = createServiceUri("/atom/user/-/state/com.google/reading-list");
+        buf.append("&n=").append(count);
+        if (continuation != null) {
+            buf.append("&c=").append(Uri.encode(continuation));
+        }
+        return buf.toString();
+    }
+    
+    @Override
+    public String getFeedEntriesUri(String streamId, int count, long publishedAfter) {
+        // Read entries are excluded, like in the reading list.
+        final StringBuilder buf = createServiceUri("/atom/" + Uri.encode(streamId, "/"));
+        buf.append("&n=").append(count).append("&xt=").append(READ_TAG);
+        if (publishedAfter > 0) {
+            // The oldest entry time is set in seconds.
+            buf.append("&ot=").append(publishedAfter / 1000);
+        }
+        return buf.toString();
+    }
+    
+    @Override
+    public String getEditTokenUri() {
+        return createServiceUri("/api/0/token").toString();
+    }
+    
+    @Override
+    public HttpUriRequest createEditRequest(int state, boolean enabled, List<String> grids,
+            String token) {
+        // Entry states are tags: every entry is tagged with a single request.
+        final List<NameValuePair> params = new ArrayList<NameValuePair>(grids.size() + 2);
+        for (final String grid : grids) {
+            params.add(new BasicNameValuePair("i", grid));
+        }
+        params.add(new BasicNameValuePair(enabled ? "a" : "r",
+                state == Outbox.STATE_STARRED ? STARRED_TAG : READ_TAG));
+        if (token != null) {
+            params.add(new BasicNameValuePair("T", token));
+        }
+        
+        final HttpPost req = new HttpPost(createServiceUri("/api/0/edit-tag").toString());
+        try {
+            req.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+        return req;
+    }
+    
+    @Override
+    public void authenticate(HttpUriRequest req) throws NetworkClientException {
+        final String authToken = prefs.getString(SP_KEY_AUTH_TOKEN, null);
+        if (authToken == null) {
+            throw new NetworkClientException("Missing authentication token", req.getURI()
+                    .toString());
+        }
+        req.setHeader("Authorization", "GoogleLogin auth=" + authToken);
+    }
+    
+    private StringBuilder createServiceUri(String uri) {
+        final StringBuilder buf = new StringBuilder(SERVICE_URI);
+        if (!uri.startsWith("/")) {
+            buf.append('/');
+        }
+        return buf.append(uri).append("?client=").append(clientId);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.net;
+
+import java.util.List;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import android.net.Uri;
+
+/**
+ * {@link FeedBackend} implementation for a {@link MockFeedServer}.
+ * @author Pixmob
+ */
+class MockFeedBackend implements FeedBackend {
+    private final String baseUri;
+    
+    public MockFeedBackend(final MockFeedServer server) {
+        baseUri = server.getBaseUri();
+    }
+    
+    @Override
+    public String getUnreadEntriesUri(int count, String continuation) {
+        final StringBuilder buf = new StringBuilder(baseUri);
+        buf.append(MockFeedServer.UNREAD_ENTRIES_PATH).append("?n=").append(count);
+        if (continuation != null) {
+            buf.append("&c=").append(Uri.encode(continuation));
+        }
+        return buf.toString();
+    }
+    
+    @Override
+    public String getFeedEntriesUri(String streamId, int count, long publishedAfter) {
+        // The mock server serves the same entries for every feed, whatever
+        // their publication time.
+        return getUnreadEntriesUri(count, null) + "&s=" + Uri.encode(streamId);
+    }
+    
+    @Override
+    public String getEditTokenUri() {
+        return null;
+    }
+    
+    @Override
+    public HttpUriRequest createEditRequest(int state, boolean enabled, List<String> grids,
+            String token) {
+        // Edit requests are accepted, but entries are not changed: served
+        // entries only depend on preferences.
+        return new HttpPost(baseUri + MockFeedServer.EDIT_PATH + "?n=" + grids.size());
+    }
+    
+    @Override
+    public void authenticate(HttpUriRequest req) {
+        // The mock server does not require any authentication.
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.net;
+
+import static org.pixmob.feedme.Constants.SP_KEY_MOCK_BODY_SIZE;
+import static org.pixmob.feedme.Constants.SP_KEY_MOCK_ENTRY_COUNT;
+import static org.pixmob.feedme.Constants.SP_KEY_MOCK_LATENCY;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.pixmob.feedme.util.PreferenceUtils;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Local Http server standing in for a feed service. Pages of unread entries
+ * are served from a recorded Atom feed if there is one, or generated with an
+ * {@link AtomFeedGenerator}. A recorded feed is served as the first page:
+ * following pages are empty, since the continuation of a recording refers to
+ * the recorded service. The number of entries, the size of entry
+ * summaries and the response latency are read from preferences for every
+ * request, so that synchronizations can be measured in reproducible
+ * conditions.
+ * @author Pixmob
+ */
+class MockFeedServer implements Runnable {
+    static final String UNREAD_ENTRIES_PATH = "/reading-list";
+    static final String EDIT_PATH = "/edit";
+    private static final String ENCODING = "UTF-8";
+    private final ServerSocket serverSocket;
+    private final SharedPreferences prefs;
+    private final File recordedFeed;
+    
+    /**
+     * Create a new server, listening on the loopback interface.
+     * @param prefs preferences for configuring served feeds
+     * @param recordedFeed Atom feed file served as the first page, or
+     *            <code>null</code> for serving generated feeds
+     */
+    public MockFeedServer(final SharedPreferences prefs, final File recordedFeed)
+            throws IOException {
+        this.prefs = prefs;
+        this.recordedFeed = recordedFeed;
+        serverSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+    }
+    
+    /**
+     * Start serving requests in a background thread.
+     */
+    public void start() {
+        final Thread t = new Thread(this, "Feedme/MockFeedServer");
+        t.setDaemon(true);
+        t.start();
+        Log.i(TAG, "Mock feed server started: " + getBaseUri());
+    }
+    
+    public String getBaseUri() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+    
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                Log.w(TAG, "Mock feed server stopped", e);
+                return;
+            }
+            
+            // Requests are served concurrently, like a real server would do.
+            new Thread("Feedme/MockFeedServer/Connection") {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Mock feed server request failed", e);
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignore) {
+                        }
+                    }
+                }
+            }.start();
+        }
+    }
+    
+    private void handle(Socket socket) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), "ISO-8859-1"));
+        final String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        final Map<String, String> headers = new HashMap<String, String>(8);
+        for (String line; (line = reader.readLine()) != null && line.length() != 0;) {
+            final int i = line.indexOf(':');
+            if (i != -1) {
+                headers.put(line.substring(0, i).trim().toLowerCase(), line.substring(i + 1)
+                        .trim());
+            }
+        }
+        
+        final String[] requestParts = requestLine.split(" ");
+        final String target = requestParts.length > 1 ? requestParts[1] : "/";
+        final int queryIndex = target.indexOf('?');
+        final String path = queryIndex == -1 ? target : target.substring(0, queryIndex);
+        final Map<String, String> params = new HashMap<String, String>(4);
+        if (queryIndex != -1) {
+            for (final String param : target.substring(queryIndex + 1).split("&")) {
+                final int i = param.indexOf('=');
+                if (i != -1) {
+                    params.put(param.substring(0, i), param.substring(i + 1));
+                }
+            }
+        }
+        
+        final OutputStream output = socket.getOutputStream();
+        if (EDIT_PATH.equals(path)) {
+            writeResponse(output, "200 OK", null, null, null);
+            return;
+        }
+        if (!UNREAD_ENTRIES_PATH.equals(path)) {
+            writeResponse(output, "404 Not Found", null, null, null);
+            return;
+        }
+        
+        final int latency = PreferenceUtils.getInt(prefs, SP_KEY_MOCK_LATENCY, 0);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        
+        final int entryCount = PreferenceUtils.getInt(prefs, SP_KEY_MOCK_ENTRY_COUNT, 500);
+        final int bodySize = PreferenceUtils.getInt(prefs, SP_KEY_MOCK_BODY_SIZE, 1000);
+        final int offset = parseInt(params.get("c"), 0);
+        // Pages following a recorded feed are empty.
+        final boolean recorded = recordedFeed != null && !params.containsKey("c");
+        final int count = recordedFeed != null ? 0 : Math.max(0, Math.min(parseInt(
+            params.get("n"), 20), entryCount - offset));
+        
+        final String etag;
+        if (recorded) {
+            etag = "\"" + recordedFeed.lastModified() + "\"";
+        } else {
+            etag = "\"" + entryCount + "-" + bodySize + "-" + offset + "-" + count + "\"";
+        }
+        if (etag.equals(headers.get("if-none-match"))) {
+            writeResponse(output, "304 Not Modified", etag, null, null);
+            return;
+        }
+        
+        final boolean gzip = headers.containsKey("accept-encoding")
+                && headers.get("accept-encoding").contains("gzip");
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(count * (bodySize + 1024));
+        final OutputStream body = gzip ? new GZIPOutputStream(buffer) : buffer;
+        if (recorded) {
+            final InputStream input = new FileInputStream(recordedFeed);
+            try {
+                final byte[] buf = new byte[4096];
+                for (int bytesRead; (bytesRead = input.read(buf)) != -1;) {
+                    body.write(buf, 0, bytesRead);
+                }
+            } finally {
+                input.close();
+            }
+            body.close();
+        } else {
+            final String continuation = recordedFeed == null && offset + count < entryCount
+                    ? String.valueOf(offset + count) : null;
+            final Writer writer = new OutputStreamWriter(body, ENCODING);
+            new AtomFeedGenerator(bodySize, 20).write(writer, ENCODING, offset, count,
+                continuation);
+            writer.close();
+        }
+        
+        writeResponse(output, "200 OK", etag, gzip ? "gzip" : null, buffer.toByteArray());
+    }
+    
+    private static void writeResponse(OutputStream output, String status, String etag,
+            String contentEncoding, byte[] body) throws IOException {
+        final StringBuilder buf = new StringBuilder(256);
+        buf.append("HTTP/1.1 ").append(status).append("\r\n");
+        buf.append("Connection: close\r\n");
+        if (etag != null) {
+            buf.append("ETag: ").append(etag).append("\r\n");
+        }
+        if (body != null) {
+            buf.append("Content-Type: application/atom+xml; charset=").append(ENCODING)
+                    .append("\r\n");
+            buf.append("Content-Length: ").append(body.length).append("\r\n");
+        } else {
+            buf.append("Content-Length: 0\r\n");
+        }
+        if (contentEncoding != null) {
+            buf.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+        }
+        buf.append("\r\n");
+        
+        output.write(buf.toString().getBytes("ISO-8859-1"));
+        if (body != null) {
+            output.write(body);
+        }
+        output.flush();
+    }
+    
+    private static int parseInt(String str, int defaultValue) {
+        if (str == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -15,29 +15,32 @@
  */
 package org.pixmob.feedme.net;
 
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
 import static org.pixmob.feedme.Constants.SHARED_PREFERENCES;
-import static org.pixmob.feedme.Constants.SP_KEY_AUTH_TOKEN;
+import static org.pixmob.feedme.Constants.SP_KEY_MOCK_BACKEND;
 import static org.pixmob.feedme.Constants.SP_KEY_NUMBER_OF_ITEMS;
 import static org.pixmob.feedme.Constants.TAG;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.io.OutputStream;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.pixmob.feedme.feature.Features;
 import org.pixmob.feedme.feature.SharedPreferencesSaverFeature;
+import org.pixmob.feedme.util.PreferenceUtils;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
@@ -50,13 +53,36 @@ import android.util.Log;
  * @author Pixmob
  */
 public class NetworkClient {
-    private static final String SP_KEY_CONTINUATION = "continuation";
+    /**
+     * Pooled connections idle for longer than this duration (in seconds) are
+     * closed.
+     */
+    private static final int MAX_IDLE_DURATION = 60;
+    /**
+     * Preferences file name for storing response validators (<code>ETag</code>
+     * and <code>Last-Modified</code> headers), indexed by request URI.
+     */
+    private static final String CACHE_VALIDATORS_PREFERENCES = "httpcache";
+    private static final String ETAG_KEY_PREFIX = "etag:";
+    private static final String LAST_MODIFIED_KEY_PREFIX = "lastModified:";
+    /**
+     * Atom feed file served by the mock feed server, if it exists in the
+     * application files directory.
+     */
+    private static final String RECORDED_FEED_FILE = "mock-feed.xml";
     private static String userAgent;
     private static String clientId;
+    private static DefaultHttpClient sharedClient;
+    private static MockFeedServer mockServer;
     private final DefaultHttpClient client;
     private final SharedPreferences prefs;
-    private final SharedPreferences.Editor prefsEditor;
+    private final SharedPreferences cacheValidators;
     private final EntriesParser parser;
+    private final FeedBackend backend;
+    /**
+     * Token for edit requests, which is requested on first use.
+     */
+    private String editToken;
     
     public NetworkClient(final Context context) {
         if (userAgent == null) {
@@ -66,11 +92,54 @@ public class NetworkClient {
             clientId = generateClientId(context);
         }
         
-        client = SSLEnabledHttpClient.newInstance(userAgent);
+        client = getSharedClient();
         prefs = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
-        prefsEditor = prefs.edit();
+        cacheValidators = context.getSharedPreferences(CACHE_VALIDATORS_PREFERENCES,
+            Context.MODE_PRIVATE);
         
         parser = new EntriesParser();
+        backend = createBackend(context);
+    }
+    
+    private FeedBackend createBackend(Context context) {
+        if (DEVELOPER_MODE && prefs.getBoolean(SP_KEY_MOCK_BACKEND, false)) {
+            final MockFeedServer server = getMockServer(context, prefs);
+            if (server != null) {
+                return new MockFeedBackend(server);
+            }
+        }
+        return new GoogleReaderBackend(clientId, prefs);
+    }
+    
+    /**
+     * Get the mock feed server, which is started on first use.
+     * @return <code>null</code> if the server could not be started
+     */
+    private static synchronized MockFeedServer getMockServer(Context context,
+            SharedPreferences prefs) {
+        if (mockServer == null) {
+            final File recordedFeed = context.getFileStreamPath(RECORDED_FEED_FILE);
+            try {
+                mockServer = new MockFeedServer(prefs, recordedFeed.exists() ? recordedFeed
+                        : null);
+                mockServer.start();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to start mock feed server", e);
+                mockServer = null;
+            }
+        }
+        return mockServer;
+    }
+    
+    /**
+     * Get the {@link DefaultHttpClient} instance shared by every
+     * {@link NetworkClient} instances, so that connections are reused.
+     */
+    private static synchronized DefaultHttpClient getSharedClient() {
+        if (sharedClient == null) {
+            sharedClient = SSLEnabledHttpClient.newInstance(userAgent);
+        }
+        return sharedClient;
     }
     
     /**
@@ -103,60 +172,105 @@ public class NetworkClient {
         return Uri.encode("feedme_" + applicationVersion);
     }
     
-    private String getAuthToken() {
-        return prefs.getString(SP_KEY_AUTH_TOKEN, null);
-    }
-    
+    /**
+     * Release network resources. Connections are kept alive for the next
+     * requests, unless they are expired or idle for too long.
+     */
     public void close() {
-        client.getConnectionManager().shutdown();
+        final ClientConnectionManager manager = client.getConnectionManager();
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(MAX_IDLE_DURATION, TimeUnit.SECONDS);
     }
     
-    private void prepareRequest(HttpUriRequest req) throws NetworkClientException {
-        final String authToken = getAuthToken();
-        if (authToken == null) {
-            throw new NetworkClientException("Missing authentication token", req.getURI()
-                    .toString());
+    /**
+     * Add conditional headers to a request, using validators from the last
+     * response to the same URI.
+     */
+    private void addCacheValidators(HttpUriRequest req, String key) {
+        final String etag = cacheValidators.getString(ETAG_KEY_PREFIX + key, null);
+        if (etag != null) {
+            req.setHeader("If-None-Match", etag);
+        }
+        final String lastModified = cacheValidators.getString(LAST_MODIFIED_KEY_PREFIX + key,
+            null);
+        if (lastModified != null) {
+            req.setHeader("If-Modified-Since", lastModified);
         }
-        req.setHeader("Authorization", "GoogleLogin auth=" + authToken);
     }
     
-    private String createServiceUri(String uri, Map<String, String> parameters) {
-        final StringBuilder buf = new StringBuilder("http://www.google.com/reader");
-        if (!uri.startsWith("/")) {
-            buf.append('/');
+    /**
+     * Save validators from a response, for the next request to the same URI.
+     */
+    private void saveCacheValidators(HttpResponse resp, String key) {
+        final SharedPreferences.Editor editor = cacheValidators.edit();
+        final Header etag = resp.getFirstHeader("ETag");
+        if (etag != null) {
+            editor.putString(ETAG_KEY_PREFIX + key, etag.getValue());
+        } else {
+            editor.remove(ETAG_KEY_PREFIX + key);
         }
-        buf.append(uri).append("?c=").append(clientId);
-        
-        if (parameters != null) {
-            for (final Map.Entry<String, String> e : parameters.entrySet()) {
-                buf.append('&').append(e.getKey()).append("=").append(e.getValue());
-            }
+        final Header lastModified = resp.getFirstHeader("Last-Modified");
+        if (lastModified != null) {
+            editor.putString(LAST_MODIFIED_KEY_PREFIX + key, lastModified.getValue());
+        } else {
+            editor.remove(LAST_MODIFIED_KEY_PREFIX + key);
         }
-        return buf.toString();
+        Features.getFeature(SharedPreferencesSaverFeature.class).save(editor);
     }
     
-    public void downloadUnreadEntries(List<ContentValues> entries) throws IOException {
-        final Map<String, String> params = new HashMap<String, String>(4);
-        params.put("client", clientId);
-        params.put("n", prefs.getString(SP_KEY_NUMBER_OF_ITEMS, "50"));
-        params.put("ck", String.valueOf(System.currentTimeMillis()));
+    /**
+     * Download a page of unread entries. Every entry is given to the results
+     * handler as soon as it is parsed. The first page is requested with
+     * conditional headers: it is not downloaded again if the server reports
+     * it is unchanged.
+     * @param continuation continuation string returned by a previous call,
+     *            or <code>null</code> to get the first page
+     * @param results parse results, where the continuation string for
+     *            downloading the next page is set (<code>null</code> if there
+     *            is no more entries)
+     * @return <code>false</code> if the page is unchanged since the last
+     *         request: in this case, no entry is parsed
+     */
+    public boolean downloadUnreadEntries(String continuation, EntriesParser.Results results)
+            throws IOException {
+        final int count = PreferenceUtils.getInt(prefs, SP_KEY_NUMBER_OF_ITEMS, 50);
         
-        final String continuation = prefs.getString(SP_KEY_CONTINUATION, null);
-        if (continuation != null) {
-            params.put("c", continuation);
-        }
+        // Only the first page is checked for changes: pages reached with a
+        // continuation string are seldom requested twice.
+        return downloadEntries(backend.getUnreadEntriesUri(count, continuation),
+            continuation == null, results);
+    }
+    
+    /**
+     * Download the most recent unread entries of a feed. Only entries
+     * published since the last known entry are requested: the request URI
+     * changes with every new entry, so it is not sent as a conditional
+     * request.
+     * @param streamId the feed stream identifier
+     * @param publishedAfter publication time of the last known entry, in
+     *            milliseconds, or <code>0</code> if the feed has no entry
+     * @param results parse results
+     */
+    public void downloadFeedEntries(String streamId, long publishedAfter,
+            EntriesParser.Results results) throws IOException {
+        final int count = PreferenceUtils.getInt(prefs, SP_KEY_NUMBER_OF_ITEMS, 50);
+        downloadEntries(backend.getFeedEntriesUri(streamId, count, publishedAfter), false,
+            results);
+    }
+    
+    private boolean downloadEntries(String uri, boolean conditional,
+            EntriesParser.Results results) throws IOException {
+        final HttpGet req = new HttpGet(uri);
+        backend.authenticate(req);
         
-        final HttpGet req = new HttpGet(createServiceUri(
-            "/atom/user/-/state/com.google/reading-list", params));
-        prepareRequest(req);
+        final String cacheKey = conditional ? req.getURI().toString() : null;
+        if (cacheKey != null) {
+            addCacheValidators(req, cacheKey);
+        }
         
         Log.i(TAG, "Sending request for downloading entries: " + req.getURI().toASCIIString());
         
-        final EntriesParser.Results parseResults = new EntriesParser.Results();
-        parseResults.entries = entries;
-        
         HttpResponse resp = null;
-        FileOutputStream output = null;
         int statusCode = 0;
         try {
             resp = client.execute(req);
@@ -165,41 +279,176 @@ public class NetworkClient {
             
             Log.i(TAG, "Entries download status code: " + statusCode);
             
+            if (statusCode == 304) {
+                return false;
+            }
             if (statusCode != 200) {
                 throw new IOException("Entries download error");
             }
             
             final HttpEntity entity = resp.getEntity();
             final InputStream input = entity.getContent();
-            parser.parse(input, EntityUtils.getContentCharSet(entity), parseResults);
+            parser.parse(input, EntityUtils.getContentCharSet(entity), results);
             
-            prefsEditor.putString(SP_KEY_CONTINUATION, parseResults.continuation);
-            Features.getFeature(SharedPreferencesSaverFeature.class).save(prefsEditor);
+            // Validators are only saved once every entry is stored, so that
+            // an interrupted download is not mistaken for an unchanged page.
+            if (cacheKey != null) {
+                saveCacheValidators(resp, cacheKey);
+            }
+            
+            return true;
         } catch (IOException e) {
             throw new NetworkClientException("Failed to get unread entries", req.getURI()
                     .toString(), statusCode, e);
         } finally {
-            if (output != null) {
-                try {
-                    output.close();
-                } catch (IOException ignore) {
-                }
+            closeResources(req, resp);
+        }
+    }
+    
+    /**
+     * Set or clear a state of several entries, with a single request.
+     * @param state {@link org.pixmob.feedme.provider.FeedmeContract.Outbox#STATE_READ}
+     *            or
+     *            {@link org.pixmob.feedme.provider.FeedmeContract.Outbox#STATE_STARRED}
+     * @param enabled <code>true</code> to set the state, <code>false</code> to
+     *            clear it
+     * @param grids Google Reader identifiers of the entries
+     */
+    public void editEntries(int state, boolean enabled, List<String> grids) throws IOException {
+        try {
+            sendEditRequest(state, enabled, grids);
+        } catch (NetworkClientException e) {
+            if (editToken == null || e.getStatusCode() == 0) {
+                throw e;
+            }
+            // Tokens expire after a while: the request is sent again once,
+            // with a new token.
+            editToken = null;
+            sendEditRequest(state, enabled, grids);
+        }
+    }
+    
+    private void sendEditRequest(int state, boolean enabled, List<String> grids)
+            throws IOException {
+        final HttpUriRequest req = backend.createEditRequest(state, enabled, grids,
+            getEditToken());
+        backend.authenticate(req);
+        
+        Log.i(TAG, "Sending request for editing " + grids.size() + " entrie(s)");
+        
+        HttpResponse resp = null;
+        int statusCode = 0;
+        try {
+            resp = client.execute(req);
+            statusCode = resp.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new IOException("Entries edit error");
             }
+        } catch (IOException e) {
+            throw new NetworkClientException("Failed to edit entries", req.getURI().toString(),
+                    statusCode, e);
+        } finally {
             closeResources(req, resp);
         }
     }
     
-    private static void closeResources(HttpUriRequest req, HttpResponse resp) {
+    /**
+     * Get a token for edit requests. A token is only requested once for this
+     * instance.
+     * @return <code>null</code> if the backend does not require any token
+     */
+    private String getEditToken() throws IOException {
+        if (editToken != null) {
+            return editToken;
+        }
+        final String uri = backend.getEditTokenUri();
+        if (uri == null) {
+            return null;
+        }
+        
+        final HttpGet req = new HttpGet(uri);
+        backend.authenticate(req);
+        HttpResponse resp = null;
+        int statusCode = 0;
         try {
-            req.abort();
-        } catch (UnsupportedOperationException ignore) {
+            resp = client.execute(req);
+            statusCode = resp.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new IOException("Token error");
+            }
+            editToken = EntityUtils.toString(resp.getEntity()).trim();
+            return editToken;
+        } catch (IOException e) {
+            throw new NetworkClientException("Failed to get edit token", uri, statusCode, e);
+        } finally {
+            closeResources(req, resp);
+        }
+    }
+    
+    /**
+     * Download a file, such as an image.
+     * @param uri file URI
+     * @param output where the file is written
+     * @param maxLength maximum file length, in bytes: larger files are not
+     *            downloaded
+     * @return the file charset, or <code>null</code> if it is unknown
+     */
+    public String download(String uri, OutputStream output, int maxLength) throws IOException {
+        final HttpGet req;
+        try {
+            req = new HttpGet(uri);
+        } catch (IllegalArgumentException e) {
+            throw new NetworkClientException("Invalid file URI", uri);
         }
+        
+        HttpResponse resp = null;
+        int statusCode = 0;
+        try {
+            resp = client.execute(req);
+            statusCode = resp.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new IOException("File download error");
+            }
+            
+            final HttpEntity entity = resp.getEntity();
+            if (entity == null || entity.getContentLength() > maxLength) {
+                // The response is not read: the connection is closed.
+                req.abort();
+                throw new IOException("Missing file or file is too large");
+            }
+            final InputStream input = entity.getContent();
+            final byte[] buf = new byte[4096];
+            int length = 0;
+            for (int bytesRead; (bytesRead = input.read(buf)) != -1;) {
+                length += bytesRead;
+                if (length > maxLength) {
+                    req.abort();
+                    throw new IOException("File is too large");
+                }
+                output.write(buf, 0, bytesRead);
+            }
+            return EntityUtils.getContentCharSet(entity);
+        } catch (IOException e) {
+            throw new NetworkClientException("Failed to download file", uri, statusCode, e);
+        } finally {
+            closeResources(req, resp);
+        }
+    }
+    
+    private static void closeResources(HttpUriRequest req, HttpResponse resp) {
+        // Consuming the response releases the connection: it can be reused by
+        // the next request. The connection is only aborted as a last resort.
         final HttpEntity entity = resp != null ? resp.getEntity() : null;
         if (entity != null) {
             try {
                 entity.consumeContent();
+                return;
             } catch (IOException ignore) {
             }
         }
+        try {
+            req.abort();
+        } catch (UnsupportedOperationException ignore) {
+        }
     }
 }
@@ -15,19 +15,28 @@
  */
 package org.pixmob.feedme.net;
 
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 
 /**
  * Internal {@link HttpClient} implementation accepting all SSL certificates.
@@ -35,9 +44,20 @@ import org.apache.http.params.HttpProtocolParams;
  * and the default {@link HttpClient} implementation does not accept untrusted
  * SSL certificates. This class provides a way for silently accepting these SSL
  * certificates.
+ * <p>
+ * Connections are pooled and kept alive: a single instance should be shared
+ * by the application.
+ * </p>
  * @author Pixmob
  */
 class SSLEnabledHttpClient extends DefaultHttpClient {
+    /**
+     * How long a connection is kept alive when the server does not say so.
+     */
+    private static final long DEFAULT_KEEP_ALIVE_DURATION = 30 * 1000;
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+    
     private SSLEnabledHttpClient(ClientConnectionManager manager, HttpParams params) {
         super(manager, params);
     }
@@ -47,9 +67,9 @@ class SSLEnabledHttpClient extends DefaultHttpClient {
         
         final HttpParams params = new BasicHttpParams();
         
-        // Turn off stale checking. Our connections break all the time anyway,
-        // and it's not worth it to pay the penalty of checking every time.
-        HttpConnectionParams.setStaleCheckingEnabled(params, false);
+        // Pooled connections may have been closed by the server while they
+        // were idle: check them before they are reused.
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
         
         final int timeout = 60 * 1000;
         HttpConnectionParams.setConnectionTimeout(params, timeout);
@@ -74,11 +94,41 @@ class SSLEnabledHttpClient extends DefaultHttpClient {
         schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
         schemeRegistry.register(new Scheme("https", sslSocketFactory, 443));
         
-        final ClientConnectionManager manager = new SingleClientConnManager(params, schemeRegistry);
+        // Share connections between threads.
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(
+                MAX_CONNECTIONS_PER_ROUTE));
+        
+        final ClientConnectionManager manager = new ThreadSafeClientConnManager(params,
+                schemeRegistry);
         final SSLEnabledHttpClient client = new SSLEnabledHttpClient(manager, params);
         client.addRequestInterceptor(new GzipRequestInterceptor());
         client.addResponseInterceptor(new GzipResponseInterceptor());
+        client.setKeepAliveStrategy(new DefaultKeepAliveStrategy());
         
         return client;
     }
+    
+    /**
+     * Keep connections alive as long as the server allows it, using the
+     * <code>Keep-Alive</code> response header.
+     * @author Pixmob
+     */
+    private static class DefaultKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            final HeaderElementIterator i = new BasicHeaderElementIterator(
+                    response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (i.hasNext()) {
+                final HeaderElement e = i.nextElement();
+                if ("timeout".equalsIgnoreCase(e.getName()) && e.getValue() != null) {
+                    try {
+                        return Long.parseLong(e.getValue()) * 1000;
+                    } catch (NumberFormatException ignore) {
+                    }
+                }
+            }
+            return DEFAULT_KEEP_ALIVE_DURATION;
+        }
+    }
 }
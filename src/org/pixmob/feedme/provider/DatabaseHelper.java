@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.provider;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import org.pixmob.feedme.feature.Features;
+import org.pixmob.feedme.feature.WriteAheadLoggingFeature;
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.provider.FeedmeContract.Feeds;
+import org.pixmob.feedme.provider.FeedmeContract.Outbox;
+import org.pixmob.feedme.util.HtmlUtils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Helper class for managing the application database. The database schema is
+ * upgraded one version at a time, so that user data is kept when the
+ * application is updated.
+ * @author Pixmob
+ */
+class DatabaseHelper extends SQLiteOpenHelper {
+    static final String ENTRIES_TABLE = "entries";
+    static final String ENTRY_CONTENTS_TABLE = "entry_contents";
+    static final String ENTRY_ARTICLES_TABLE = "entry_articles";
+    static final String FEEDS_TABLE = "feeds";
+    static final String ENTRIES_SEARCH_TABLE = "entries_search";
+    static final String OUTBOX_TABLE = "outbox";
+    /**
+     * Plain text column of the search index, built from entry summaries.
+     */
+    static final String SEARCH_BODY = "body";
+    /**
+     * Add an entry to the search index. The feed title is read from the feed
+     * identifier. Arguments: entry identifier, title, feed identifier and
+     * plain text summary.
+     */
+    static final String INSERT_SEARCH_ENTRY = "INSERT INTO " + ENTRIES_SEARCH_TABLE
+            + " (docid, " + Entries.TITLE + ", " + Entries.SOURCE + ", " + SEARCH_BODY
+            + ") VALUES (?, ?, (SELECT " + Feeds.TITLE + " FROM " + FEEDS_TABLE + " WHERE "
+            + Feeds._ID + "=?), ?)";
+    /**
+     * Update the plain text summary of an entry in the search index.
+     * Arguments: plain text summary and entry identifier.
+     */
+    static final String UPDATE_SEARCH_BODY = "UPDATE " + ENTRIES_SEARCH_TABLE + " SET "
+            + SEARCH_BODY + "=? WHERE docid=?";
+    
+    private static final String DATABASE_NAME = "feedme.db";
+    /**
+     * Current database version. Every time this value is incremented, a new
+     * step must be added to {@link #upgrade(SQLiteDatabase, int)}.
+     */
+    private static final int DATABASE_VERSION = 15;
+    /**
+     * Oldest database version which can be upgraded without losing data.
+     */
+    private static final int MIN_UPGRADABLE_VERSION = 2;
+    
+    /**
+     * Feed title column of the entries table, before version 5.
+     */
+    private static final String SOURCE_COLUMN = "source";
+    
+    private static final String CREATE_ENTRIES_TABLE = "CREATE TABLE " + ENTRIES_TABLE + " ("
+            + Entries._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Entries.GRID + " TEXT, "
+            + Entries.FEED_ID + " INTEGER, " + Entries.PUBLISHED + " LONG, " + Entries.STARRED
+            + " INTEGER, " + Entries.TITLE + " TEXT, " + Entries.URL + " TEXT, "
+            + Entries.STATUS + " INTEGER, " + Entries.IMAGE + " TEXT, " + Entries.SNIPPET
+            + " TEXT, " + Entries.WORD_COUNT + " INTEGER);";
+    /**
+     * Entries table in version 5, which is created when upgrading from an
+     * older version.
+     */
+    private static final String CREATE_ENTRIES_TABLE_VERSION_5 = "CREATE TABLE " + ENTRIES_TABLE
+            + " (" + Entries._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Entries.GRID
+            + " TEXT, " + Entries.FEED_ID + " INTEGER, " + Entries.PUBLISHED + " LONG, "
+            + Entries.STARRED + " INTEGER, " + Entries.TITLE + " TEXT, " + Entries.URL
+            + " TEXT, " + Entries.STATUS + " INTEGER, " + Entries.IMAGE + " TEXT);";
+    /**
+     * Entries table in version 4, which is created when upgrading from an
+     * older version.
+     */
+    private static final String CREATE_ENTRIES_TABLE_VERSION_4 = "CREATE TABLE " + ENTRIES_TABLE
+            + " (" + Entries._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Entries.GRID
+            + " TEXT, " + SOURCE_COLUMN + " TEXT, " + Entries.PUBLISHED + " LONG, "
+            + Entries.STARRED + " INTEGER, " + Entries.TITLE + " TEXT, " + Entries.URL
+            + " TEXT, " + Entries.STATUS + " INTEGER, " + Entries.IMAGE + " TEXT);";
+    /**
+     * Entry summaries are kept out of the entries table, so that list queries
+     * do not load them.
+     */
+    private static final String CREATE_ENTRY_CONTENTS_TABLE = "CREATE TABLE "
+            + ENTRY_CONTENTS_TABLE + " (" + Entries._ID + " INTEGER PRIMARY KEY, "
+            + Entries.SUMMARY + " TEXT);";
+    private static final String CREATE_ENTRY_CONTENTS_DELETE_TRIGGER = "CREATE TRIGGER "
+            + ENTRY_CONTENTS_TABLE + "_delete AFTER DELETE ON " + ENTRIES_TABLE
+            + " BEGIN DELETE FROM " + ENTRY_CONTENTS_TABLE + " WHERE " + Entries._ID + "=OLD."
+            + Entries._ID + "; END;";
+    /**
+     * Downloaded articles are kept out of entry contents: summaries are
+     * replaced when entries are downloaded again, while articles are kept.
+     */
+    private static final String CREATE_ENTRY_ARTICLES_TABLE = "CREATE TABLE "
+            + ENTRY_ARTICLES_TABLE + " (" + Entries._ID + " INTEGER PRIMARY KEY, "
+            + Entries.ARTICLE + " TEXT, " + Entries.ARTICLE_ATTEMPTED + " INTEGER);";
+    /**
+     * Entry articles table in version 9, which is created when upgrading from
+     * an older version.
+     */
+    private static final String CREATE_ENTRY_ARTICLES_TABLE_VERSION_9 = "CREATE TABLE "
+            + ENTRY_ARTICLES_TABLE + " (" + Entries._ID + " INTEGER PRIMARY KEY, "
+            + Entries.ARTICLE + " TEXT);";
+    private static final String CREATE_ENTRY_ARTICLES_DELETE_TRIGGER = "CREATE TRIGGER "
+            + ENTRY_ARTICLES_TABLE + "_delete AFTER DELETE ON " + ENTRIES_TABLE
+            + " BEGIN DELETE FROM " + ENTRY_ARTICLES_TABLE + " WHERE " + Entries._ID + "=OLD."
+            + Entries._ID + "; END;";
+    private static final String CREATE_ENTRIES_GRID_INDEX = "CREATE UNIQUE INDEX "
+            + ENTRIES_TABLE + "_grid_idx ON " + ENTRIES_TABLE + " (" + Entries.GRID + ");";
+    private static final String CREATE_ENTRIES_FEED_INDEX = "CREATE INDEX " + ENTRIES_TABLE
+            + "_feed_idx ON " + ENTRIES_TABLE + " (" + Entries.FEED_ID + ");";
+    /**
+     * Entries are listed from the most recent one, then by descending
+     * identifier: this ascending index is scanned backwards, in the exact
+     * order of entry pages.
+     */
+    private static final String CREATE_ENTRIES_STATUS_INDEX = "CREATE INDEX " + ENTRIES_TABLE
+            + "_status_published_idx ON " + ENTRIES_TABLE + " (" + Entries.STATUS + ", "
+            + Entries.PUBLISHED + ");";
+    
+    /**
+     * Entry changes waiting to be sent. Entries are referenced by GRID, since
+     * a deleted entry is sent after it is deleted. Changing the same state of
+     * an entry again replaces the pending change.
+     */
+    private static final String CREATE_OUTBOX_TABLE = "CREATE TABLE " + OUTBOX_TABLE + " ("
+            + Outbox._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Outbox.GRID
+            + " TEXT NOT NULL, " + Outbox.STATE + " INTEGER NOT NULL, " + Outbox.ENABLED
+            + " INTEGER NOT NULL, UNIQUE (" + Outbox.GRID + ", " + Outbox.STATE
+            + ") ON CONFLICT REPLACE);";
+    
+    private static final String CREATE_FEEDS_TABLE = "CREATE TABLE " + FEEDS_TABLE + " ("
+            + Feeds._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Feeds.STREAM_ID
+            + " TEXT UNIQUE NOT NULL, " + Feeds.TITLE + " TEXT, " + Feeds.UNREAD_COUNT
+            + " INTEGER NOT NULL DEFAULT 0, " + Feeds.TOTAL_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + Feeds.ICON_UPDATED + " INTEGER, " + Feeds.LAST_PUBLISHED + " INTEGER, "
+            + Feeds.PUBLISH_INTERVAL + " INTEGER, " + Feeds.NEXT_POLL + " INTEGER, "
+            + Feeds.ICON_ATTEMPTED + " INTEGER);";
+    /**
+     * Feeds table in version 5, which is created when upgrading from an older
+     * version.
+     */
+    private static final String CREATE_FEEDS_TABLE_VERSION_5 = "CREATE TABLE " + FEEDS_TABLE
+            + " (" + Feeds._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Feeds.STREAM_ID
+            + " TEXT UNIQUE NOT NULL, " + Feeds.TITLE + " TEXT, " + Feeds.UNREAD_COUNT
+            + " INTEGER NOT NULL DEFAULT 0, " + Feeds.TOTAL_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+    /**
+     * Deleting a feed deletes its entries.
+     */
+    private static final String CREATE_FEEDS_DELETE_TRIGGER = "CREATE TRIGGER " + FEEDS_TABLE
+            + "_delete AFTER DELETE ON " + FEEDS_TABLE + " BEGIN DELETE FROM " + ENTRIES_TABLE
+            + " WHERE " + Entries.FEED_ID + "=OLD." + Feeds._ID + "; END;";
+    /**
+     * Feed counters are maintained by triggers, in the same transaction as
+     * entry updates: counting feed entries does not require a table scan.
+     */
+    private static final String CREATE_FEED_COUNTERS_INSERT_TRIGGER = "CREATE TRIGGER "
+            + FEEDS_TABLE + "_counters_insert AFTER INSERT ON " + ENTRIES_TABLE + " BEGIN "
+            + incrementFeedCounters("NEW", "+") + " END;";
+    private static final String CREATE_FEED_COUNTERS_DELETE_TRIGGER = "CREATE TRIGGER "
+            + FEEDS_TABLE + "_counters_delete AFTER DELETE ON " + ENTRIES_TABLE + " BEGIN "
+            + incrementFeedCounters("OLD", "-") + " END;";
+    private static final String CREATE_FEED_COUNTERS_UPDATE_TRIGGER = "CREATE TRIGGER "
+            + FEEDS_TABLE + "_counters_update AFTER UPDATE OF " + Entries.FEED_ID + ", "
+            + Entries.STATUS + " ON " + ENTRIES_TABLE + " WHEN " + isChanged(Entries.FEED_ID)
+            + " OR " + isChanged(Entries.STATUS) + " BEGIN " + incrementFeedCounters("OLD", "-")
+            + " " + incrementFeedCounters("NEW", "+") + " END;";
+    
+    /**
+     * The search index is a full-text table, whose document identifiers are
+     * entry identifiers. Entries are added by the content provider, since
+     * summaries are converted to plain text. Other changes are applied by
+     * triggers.
+     */
+    private static final String CREATE_ENTRIES_SEARCH_TABLE = "CREATE VIRTUAL TABLE "
+            + ENTRIES_SEARCH_TABLE + " USING fts3(" + Entries.TITLE + ", " + Entries.SOURCE + ", "
+            + SEARCH_BODY + ");";
+    private static final String CREATE_ENTRIES_SEARCH_DELETE_TRIGGER = "CREATE TRIGGER "
+            + ENTRIES_SEARCH_TABLE + "_delete AFTER DELETE ON " + ENTRIES_TABLE
+            + " BEGIN DELETE FROM " + ENTRIES_SEARCH_TABLE + " WHERE docid=OLD." + Entries._ID
+            + "; END;";
+    private static final String CREATE_ENTRIES_SEARCH_UPDATE_TRIGGER = "CREATE TRIGGER "
+            + ENTRIES_SEARCH_TABLE + "_update AFTER UPDATE OF " + Entries.TITLE + ", "
+            + Entries.FEED_ID + " ON " + ENTRIES_TABLE + " WHEN " + isChanged(Entries.TITLE)
+            + " OR " + isChanged(Entries.FEED_ID) + " BEGIN UPDATE " + ENTRIES_SEARCH_TABLE
+            + " SET " + Entries.TITLE + "=NEW." + Entries.TITLE + ", " + Entries.SOURCE
+            + "=(SELECT " + Feeds.TITLE + " FROM " + FEEDS_TABLE + " WHERE " + Feeds._ID + "=NEW."
+            + Entries.FEED_ID + ") WHERE docid=NEW." + Entries._ID + "; END;";
+    private static final String CREATE_FEEDS_SEARCH_UPDATE_TRIGGER = "CREATE TRIGGER "
+            + FEEDS_TABLE + "_search_update AFTER UPDATE OF " + Feeds.TITLE + " ON " + FEEDS_TABLE
+            + " WHEN " + isChanged(Feeds.TITLE) + " BEGIN UPDATE " + ENTRIES_SEARCH_TABLE
+            + " SET " + Entries.SOURCE + "=NEW." + Feeds.TITLE + " WHERE docid IN (SELECT "
+            + Entries._ID + " FROM " + ENTRIES_TABLE + " WHERE " + Entries.FEED_ID + "=NEW."
+            + Feeds._ID + "); END;";
+    
+    public DatabaseHelper(final Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+    
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        Log.i(TAG, "Create database");
+        // Unused pages are reclaimed when entries are cleaned up: this mode
+        // cannot be changed once tables are created.
+        db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+        db.execSQL(CREATE_ENTRIES_TABLE);
+        db.execSQL(CREATE_ENTRIES_GRID_INDEX);
+        db.execSQL(CREATE_ENTRIES_FEED_INDEX);
+        db.execSQL(CREATE_ENTRIES_STATUS_INDEX);
+        db.execSQL(CREATE_ENTRY_CONTENTS_TABLE);
+        db.execSQL(CREATE_ENTRY_CONTENTS_DELETE_TRIGGER);
+        db.execSQL(CREATE_ENTRY_ARTICLES_TABLE);
+        db.execSQL(CREATE_ENTRY_ARTICLES_DELETE_TRIGGER);
+        db.execSQL(CREATE_FEEDS_TABLE);
+        db.execSQL(CREATE_FEEDS_DELETE_TRIGGER);
+        db.execSQL(CREATE_FEED_COUNTERS_INSERT_TRIGGER);
+        db.execSQL(CREATE_FEED_COUNTERS_DELETE_TRIGGER);
+        db.execSQL(CREATE_FEED_COUNTERS_UPDATE_TRIGGER);
+        db.execSQL(CREATE_ENTRIES_SEARCH_TABLE);
+        db.execSQL(CREATE_ENTRIES_SEARCH_DELETE_TRIGGER);
+        db.execSQL(CREATE_ENTRIES_SEARCH_UPDATE_TRIGGER);
+        db.execSQL(CREATE_FEEDS_SEARCH_UPDATE_TRIGGER);
+        db.execSQL(CREATE_OUTBOX_TABLE);
+        
+        if (DEVELOPER_MODE) {
+            Log.i(TAG, "Insert sample data into database");
+            
+            final String notNull = "not_null";
+            final ContentValues cv = new ContentValues();
+            
+            cv.put(Feeds.STREAM_ID, "feed/http://www.androidnews.com/feed/");
+            cv.put(Feeds.TITLE, "Android News");
+            final long feedId = db.insertOrThrow(FEEDS_TABLE, notNull, cv);
+            
+            cv.clear();
+            cv.put(Entries.GRID, "feed/http://www.androidnews.com/feed/");
+            cv.put(Entries.FEED_ID, feedId);
+            cv.put(Entries.PUBLISHED, System.currentTimeMillis());
+            cv.put(Entries.TITLE, "Feedme 1.0 is out!");
+            cv.put(Entries.URL, "http://github.com/pixmob/feedme");
+            cv.put(Entries.STATUS, Entries.STATUS_UNREAD);
+            final long entryId = db.insertOrThrow(ENTRIES_TABLE, notNull, cv);
+            
+            cv.clear();
+            cv.put(Entries._ID, entryId);
+            cv.put(Entries.SUMMARY, "Feedme 1.0 is out! Get this version while it's hot!");
+            db.insertOrThrow(ENTRY_CONTENTS_TABLE, notNull, cv);
+            
+            db.execSQL(INSERT_SEARCH_ENTRY, new Object[] { entryId, "Feedme 1.0 is out!", feedId,
+                    "Feedme 1.0 is out! Get this version while it's hot!" });
+        }
+    }
+    
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        
+        // With write-ahead logging, queries are served from a separate
+        // connection: entries can be displayed while a synchronization is
+        // writing to the database.
+        if (!db.isReadOnly()
+                && Features.getFeature(WriteAheadLoggingFeature.class).enable(db)
+                && DEVELOPER_MODE) {
+            Log.d(TAG, "Write-ahead logging enabled");
+        }
+    }
+    
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < MIN_UPGRADABLE_VERSION) {
+            Log.w(TAG, "Reset database (all data will be destroyed)");
+            db.execSQL("DROP TABLE IF EXISTS " + OUTBOX_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + ENTRIES_SEARCH_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + FEEDS_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + ENTRY_ARTICLES_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + ENTRY_CONTENTS_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + ENTRIES_TABLE);
+            onCreate(db);
+            return;
+        }
+        
+        // This method is called within a transaction: if an upgrade step
+        // fails, the database is left untouched.
+        for (int version = oldVersion + 1; version <= newVersion; ++version) {
+            Log.i(TAG, "Upgrade database to version " + version);
+            upgrade(db, version);
+        }
+    }
+    
+    /**
+     * Upgrade the database schema from <code>version - 1</code> to
+     * <code>version</code>.
+     */
+    private void upgrade(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 3:
+                // Duplicate entries may have been inserted before the unique
+                // index was created: only keep the most recent one. Entries
+                // without GRID are not duplicates, and are all kept.
+                db.execSQL("DELETE FROM " + ENTRIES_TABLE + " WHERE " + Entries._ID
+                        + " NOT IN (SELECT MAX(" + Entries._ID + ") FROM " + ENTRIES_TABLE
+                        + " GROUP BY " + Entries.GRID + ") AND " + Entries.GRID + " IS NOT NULL");
+                db.execSQL(CREATE_ENTRIES_GRID_INDEX);
+                db.execSQL(CREATE_ENTRIES_STATUS_INDEX);
+                break;
+            case 4:
+                upgradeToVersion4(db);
+                break;
+            case 5:
+                upgradeToVersion5(db);
+                break;
+            case 6:
+                upgradeToVersion6(db);
+                break;
+            case 7:
+                db.execSQL("DROP INDEX IF EXISTS " + ENTRIES_TABLE + "_status_published_idx");
+                db.execSQL(CREATE_ENTRIES_STATUS_INDEX);
+                break;
+            case 8:
+                db.execSQL("ALTER TABLE " + FEEDS_TABLE + " ADD COLUMN " + Feeds.ICON_UPDATED
+                        + " INTEGER");
+                break;
+            case 9:
+                db.execSQL(CREATE_ENTRY_ARTICLES_TABLE_VERSION_9);
+                db.execSQL(CREATE_ENTRY_ARTICLES_DELETE_TRIGGER);
+                break;
+            case 10:
+                upgradeToVersion10(db);
+                break;
+            case 11:
+                db.execSQL(CREATE_OUTBOX_TABLE);
+                break;
+            case 12:
+                db.execSQL("ALTER TABLE " + FEEDS_TABLE + " ADD COLUMN " + Feeds.LAST_PUBLISHED
+                        + " INTEGER");
+                db.execSQL("ALTER TABLE " + FEEDS_TABLE + " ADD COLUMN "
+                        + Feeds.PUBLISH_INTERVAL + " INTEGER");
+                db.execSQL("ALTER TABLE " + FEEDS_TABLE + " ADD COLUMN " + Feeds.NEXT_POLL
+                        + " INTEGER");
+                break;
+            case 13:
+                // Entries without publication time are stored as published
+                // at 0, so that entry pages are keyed on the bare column.
+                db.execSQL("UPDATE " + ENTRIES_TABLE + " SET " + Entries.PUBLISHED + "=0 WHERE "
+                        + Entries.PUBLISHED + " IS NULL");
+                break;
+            case 14:
+                db.execSQL("ALTER TABLE " + ENTRY_ARTICLES_TABLE + " ADD COLUMN "
+                        + Entries.ARTICLE_ATTEMPTED + " INTEGER");
+                break;
+            case 15:
+                db.execSQL("ALTER TABLE " + FEEDS_TABLE + " ADD COLUMN " + Feeds.ICON_ATTEMPTED
+                        + " INTEGER");
+                break;
+            default:
+                throw new IllegalStateException("Unsupported database version: " + version);
+        }
+    }
+    
+    /**
+     * Move summaries to their own table. SQLite cannot drop a column: the
+     * entries table is rebuilt without summaries.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL(CREATE_ENTRY_CONTENTS_TABLE);
+        db.execSQL("INSERT INTO " + ENTRY_CONTENTS_TABLE + " (" + Entries._ID + ", "
+                + Entries.SUMMARY + ") SELECT " + Entries._ID + ", " + Entries.SUMMARY + " FROM "
+                + ENTRIES_TABLE + " WHERE " + Entries.SUMMARY + " IS NOT NULL");
+        
+        final String entryColumns = Entries._ID + ", " + Entries.GRID + ", " + SOURCE_COLUMN
+                + ", " + Entries.PUBLISHED + ", " + Entries.STARRED + ", " + Entries.TITLE + ", "
+                + Entries.URL + ", " + Entries.STATUS + ", " + Entries.IMAGE;
+        db.execSQL("ALTER TABLE " + ENTRIES_TABLE + " RENAME TO " + ENTRIES_TABLE + "_old");
+        db.execSQL("DROP INDEX IF EXISTS " + ENTRIES_TABLE + "_grid_idx");
+        db.execSQL("DROP INDEX IF EXISTS " + ENTRIES_TABLE + "_status_published_idx");
+        db.execSQL(CREATE_ENTRIES_TABLE_VERSION_4);
+        db.execSQL("INSERT INTO " + ENTRIES_TABLE + " (" + entryColumns + ") SELECT "
+                + entryColumns + " FROM " + ENTRIES_TABLE + "_old");
+        db.execSQL("DROP TABLE " + ENTRIES_TABLE + "_old");
+        db.execSQL(CREATE_ENTRIES_GRID_INDEX);
+        db.execSQL(CREATE_ENTRIES_STATUS_INDEX);
+        db.execSQL(CREATE_ENTRY_CONTENTS_DELETE_TRIGGER);
+    }
+    
+    /**
+     * Move feeds to their own table. Entries reference their feed by
+     * identifier, and feed counters are initialized from existing entries.
+     * Before this version, feeds were only known by their title.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL(CREATE_FEEDS_TABLE_VERSION_5);
+        db.execSQL("INSERT INTO " + FEEDS_TABLE + " (" + Feeds.STREAM_ID + ", " + Feeds.TITLE
+                + ") SELECT DISTINCT " + SOURCE_COLUMN + ", " + SOURCE_COLUMN + " FROM "
+                + ENTRIES_TABLE + " WHERE " + SOURCE_COLUMN + " IS NOT NULL");
+        
+        final String entryColumns = Entries._ID + ", " + Entries.GRID + ", "
+                + Entries.PUBLISHED + ", " + Entries.STARRED + ", " + Entries.TITLE + ", "
+                + Entries.URL + ", " + Entries.STATUS + ", " + Entries.IMAGE;
+        db.execSQL("ALTER TABLE " + ENTRIES_TABLE + " RENAME TO " + ENTRIES_TABLE + "_old");
+        db.execSQL("DROP INDEX IF EXISTS " + ENTRIES_TABLE + "_grid_idx");
+        db.execSQL("DROP INDEX IF EXISTS " + ENTRIES_TABLE + "_status_published_idx");
+        db.execSQL(CREATE_ENTRIES_TABLE_VERSION_5);
+        db.execSQL("INSERT INTO " + ENTRIES_TABLE + " (" + entryColumns + ", "
+                + Entries.FEED_ID + ") SELECT " + entryColumns + ", (SELECT " + FEEDS_TABLE
+                + "." + Feeds._ID + " FROM " + FEEDS_TABLE + " WHERE " + FEEDS_TABLE + "."
+                + Feeds.STREAM_ID + "=" + ENTRIES_TABLE + "_old." + SOURCE_COLUMN + ") FROM "
+                + ENTRIES_TABLE + "_old");
+        db.execSQL("DROP TABLE " + ENTRIES_TABLE + "_old");
+        db.execSQL(CREATE_ENTRIES_GRID_INDEX);
+        db.execSQL(CREATE_ENTRIES_FEED_INDEX);
+        db.execSQL(CREATE_ENTRIES_STATUS_INDEX);
+        db.execSQL(CREATE_ENTRY_CONTENTS_DELETE_TRIGGER);
+        
+        db.execSQL("UPDATE " + FEEDS_TABLE + " SET " + Feeds.TOTAL_COUNT + "=(SELECT COUNT(*) FROM "
+                + ENTRIES_TABLE + " WHERE " + Entries.FEED_ID + "=" + FEEDS_TABLE + "."
+                + Feeds._ID + "), " + Feeds.UNREAD_COUNT + "=(SELECT COUNT(*) FROM "
+                + ENTRIES_TABLE + " WHERE " + Entries.FEED_ID + "=" + FEEDS_TABLE + "."
+                + Feeds._ID + " AND " + Entries.STATUS + "=" + Entries.STATUS_UNREAD + ")");
+        db.execSQL(CREATE_FEEDS_DELETE_TRIGGER);
+        db.execSQL(CREATE_FEED_COUNTERS_INSERT_TRIGGER);
+        db.execSQL(CREATE_FEED_COUNTERS_DELETE_TRIGGER);
+        db.execSQL(CREATE_FEED_COUNTERS_UPDATE_TRIGGER);
+    }
+    
+    /**
+     * Create the search index, and add existing entries.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL(CREATE_ENTRIES_SEARCH_TABLE);
+        final SQLiteStatement insertStatement = db.compileStatement(INSERT_SEARCH_ENTRY);
+        final Cursor c = db.rawQuery("SELECT " + ENTRIES_TABLE + "." + Entries._ID + ", "
+                + Entries.TITLE + ", " + Entries.FEED_ID + ", " + Entries.SUMMARY + " FROM "
+                + ENTRIES_TABLE + " LEFT OUTER JOIN " + ENTRY_CONTENTS_TABLE + " ON ("
+                + ENTRIES_TABLE + "." + Entries._ID + "=" + ENTRY_CONTENTS_TABLE + "."
+                + Entries._ID + ")", null);
+        try {
+            while (c.moveToNext()) {
+                insertStatement.bindLong(1, c.getLong(0));
+                bindStringOrNull(insertStatement, 2, c.getString(1));
+                if (c.isNull(2)) {
+                    insertStatement.bindNull(3);
+                } else {
+                    insertStatement.bindLong(3, c.getLong(2));
+                }
+                final String summary = c.getString(3);
+                bindStringOrNull(insertStatement, 4, summary == null ? null : HtmlUtils
+                        .toPlainText(summary));
+                insertStatement.executeInsert();
+            }
+        } finally {
+            c.close();
+            insertStatement.close();
+        }
+        db.execSQL(CREATE_ENTRIES_SEARCH_DELETE_TRIGGER);
+        db.execSQL(CREATE_ENTRIES_SEARCH_UPDATE_TRIGGER);
+        db.execSQL(CREATE_FEEDS_SEARCH_UPDATE_TRIGGER);
+    }
+    
+    /**
+     * Add entry snippets and word counts, computed from existing summaries.
+     * Existing summaries are sanitized, like downloaded summaries.
+     */
+    private void upgradeToVersion10(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + ENTRIES_TABLE + " ADD COLUMN " + Entries.SNIPPET + " TEXT");
+        db.execSQL("ALTER TABLE " + ENTRIES_TABLE + " ADD COLUMN " + Entries.WORD_COUNT
+                + " INTEGER");
+        
+        final SQLiteStatement updateStatement = db.compileStatement("UPDATE " + ENTRIES_TABLE
+                + " SET " + Entries.SNIPPET + "=?, " + Entries.WORD_COUNT + "=? WHERE "
+                + Entries._ID + "=?");
+        final SQLiteStatement updateSummaryStatement = db.compileStatement("UPDATE "
+                + ENTRY_CONTENTS_TABLE + " SET " + Entries.SUMMARY + "=? WHERE " + Entries._ID
+                + "=?");
+        final Cursor c = db.rawQuery("SELECT " + Entries._ID + ", " + Entries.SUMMARY + " FROM "
+                + ENTRY_CONTENTS_TABLE + " WHERE " + Entries.SUMMARY + " IS NOT NULL", null);
+        try {
+            while (c.moveToNext()) {
+                final long entryId = c.getLong(0);
+                final String summary = c.getString(1);
+                final String text = HtmlUtils.toPlainText(summary);
+                updateStatement.bindString(1, HtmlUtils.getSnippet(text,
+                    Entries.MAX_SNIPPET_LENGTH));
+                updateStatement.bindLong(2, HtmlUtils.countWords(text));
+                updateStatement.bindLong(3, entryId);
+                updateStatement.execute();
+                
+                updateSummaryStatement.bindString(1, HtmlUtils.sanitize(summary));
+                updateSummaryStatement.bindLong(2, entryId);
+                updateSummaryStatement.execute();
+            }
+        } finally {
+            c.close();
+            updateStatement.close();
+            updateSummaryStatement.close();
+        }
+    }
+    
+    private static void bindStringOrNull(SQLiteStatement s, int index, String value) {
+        if (value == null) {
+            s.bindNull(index);
+        } else {
+            s.bindString(index, value);
+        }
+    }
+    
+    /**
+     * Get an expression for a trigger, which is true if a column value is
+     * changed. The operator <code>IS NOT</code> is not used: it is not
+     * supported by SQLite before 3.6.19.
+     */
+    private static String isChanged(String column) {
+        return "IFNULL(OLD." + column + ", '')<>IFNULL(NEW." + column + ", '')";
+    }
+    
+    /**
+     * Get a statement for updating the counters of the feed of an entry. An
+     * entry without status is counted as read.
+     * @param entry <code>NEW</code> or <code>OLD</code>
+     * @param op <code>+</code> or <code>-</code>
+     */
+    private static String incrementFeedCounters(String entry, String op) {
+        return "UPDATE " + FEEDS_TABLE + " SET " + Feeds.TOTAL_COUNT + "=" + Feeds.TOTAL_COUNT
+                + op + "1, " + Feeds.UNREAD_COUNT + "=" + Feeds.UNREAD_COUNT + op + "(IFNULL("
+                + entry + "." + Entries.STATUS + ", 0)=" + Entries.STATUS_UNREAD + ") WHERE "
+                + Feeds._ID + "=" + entry + "." + Entries.FEED_ID + ";";
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.provider;
+
+import static org.pixmob.feedme.Constants.TAG;
+import static org.pixmob.feedme.provider.DatabaseHelper.ENTRIES_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.ENTRY_CONTENTS_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.INSERT_SEARCH_ENTRY;
+import static org.pixmob.feedme.provider.DatabaseHelper.OUTBOX_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.UPDATE_SEARCH_BODY;
+
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.provider.FeedmeContract.Outbox;
+import org.pixmob.feedme.util.HtmlUtils;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Compiled statements for inserting or updating entries by GRID. Statements
+ * are compiled once, and reused for every entry: this is much faster than
+ * going through {@link SQLiteDatabase#insert(String, String, ContentValues)},
+ * which compiles a statement for each row.
+ * <p>
+ * An entry column which is missing from the values is left untouched when an
+ * existing entry is updated. Entry feeds are resolved with
+ * {@link FeedStatements}, and the search index is updated with entry
+ * summaries.
+ * </p>
+ * <p>
+ * The status and the starred flag of an entry are not updated while a local
+ * change of these states is waiting in the {@link Outbox}: the server is not
+ * aware of this change yet. For the same reason, an entry which was deleted
+ * before being read is not inserted again while it is waiting to be marked
+ * as read.
+ * </p>
+ * @author Pixmob
+ */
+class EntryUpsertStatements {
+    private final SQLiteStatement selectIdStatement;
+    private final SQLiteStatement selectPendingReadStatement;
+    private final SQLiteStatement insertStatement;
+    private final SQLiteStatement updateStatement;
+    private final SQLiteStatement contentsStatement;
+    private final SQLiteStatement insertSearchStatement;
+    private final SQLiteStatement updateSearchStatement;
+    private final FeedStatements feedStatements;
+    
+    public EntryUpsertStatements(final SQLiteDatabase db) {
+        selectIdStatement = db.compileStatement("SELECT " + Entries._ID + " FROM "
+                + ENTRIES_TABLE + " WHERE " + Entries.GRID + "=?");
+        selectPendingReadStatement = db.compileStatement("SELECT COUNT(*) FROM " + OUTBOX_TABLE
+                + " WHERE " + Outbox.GRID + "=? AND " + Outbox.STATE + "=" + Outbox.STATE_READ
+                + " AND " + Outbox.ENABLED + "=1");
+        insertStatement = db.compileStatement("INSERT INTO " + ENTRIES_TABLE + " ("
+                + Entries.GRID + ", " + Entries.FEED_ID + ", " + Entries.PUBLISHED + ", "
+                + Entries.STARRED + ", " + Entries.TITLE + ", " + Entries.URL + ", "
+                + Entries.STATUS + ", " + Entries.IMAGE + ", " + Entries.SNIPPET + ", "
+                + Entries.WORD_COUNT + ") VALUES (?, ?, COALESCE(?, 0), ?, ?, ?, ?, ?, ?, ?)");
+        updateStatement = db.compileStatement("UPDATE " + ENTRIES_TABLE + " SET "
+                + Entries.FEED_ID + "=COALESCE(?, " + Entries.FEED_ID + "), " + Entries.PUBLISHED
+                + "=COALESCE(?, " + Entries.PUBLISHED + "), " + Entries.STARRED + "="
+                + coalesceUnlessPending(Entries.STARRED, Outbox.STATE_STARRED) + ", "
+                + Entries.TITLE + "=COALESCE(?, " + Entries.TITLE + "), " + Entries.URL
+                + "=COALESCE(?, " + Entries.URL + "), " + Entries.STATUS + "="
+                + coalesceUnlessPending(Entries.STATUS, Outbox.STATE_READ) + ", "
+                + Entries.IMAGE + "=COALESCE(?, " + Entries.IMAGE + "), " + Entries.SNIPPET
+                + "=COALESCE(?, " + Entries.SNIPPET + "), " + Entries.WORD_COUNT + "=COALESCE(?, "
+                + Entries.WORD_COUNT + ") WHERE " + Entries._ID + "=?");
+        contentsStatement = db.compileStatement("INSERT OR REPLACE INTO "
+                + ENTRY_CONTENTS_TABLE + " (" + Entries._ID + ", " + Entries.SUMMARY
+                + ") VALUES (?, ?)");
+        insertSearchStatement = db.compileStatement(INSERT_SEARCH_ENTRY);
+        updateSearchStatement = db.compileStatement(UPDATE_SEARCH_BODY);
+        feedStatements = new FeedStatements(db);
+    }
+    
+    /**
+     * Insert an entry, or update the entry with the same GRID if there is one.
+     * Entries without GRID are skipped: they cannot be matched with an
+     * existing entry, and failing would roll back every entry of the batch.
+     * @return the entry identifier, or <code>-1</code> if the entry was
+     *         skipped or deleted locally
+     */
+    public long upsert(ContentValues values) {
+        final String grid = values.getAsString(Entries.GRID);
+        if (grid == null) {
+            Log.w(TAG, "Skip entry without GRID: " + values.getAsString(Entries.TITLE));
+            return -1;
+        }
+        
+        long entryId = findEntry(grid);
+        if (entryId == -1 && isReadPending(grid)) {
+            // This entry was deleted locally: it is only downloaded again
+            // because the server does not know it was read.
+            return -1;
+        }
+        
+        final Long feedId = feedStatements.getFeedId(values);
+        final String summary = values.getAsString(Entries.SUMMARY);
+        final String plainTextSummary = summary == null ? null : HtmlUtils.toPlainText(summary);
+        
+        if (entryId == -1) {
+            final String title = values.getAsString(Entries.TITLE);
+            final SQLiteStatement s = insertStatement;
+            bind(s, 1, grid);
+            bind(s, 2, feedId);
+            bind(s, 3, values.getAsLong(Entries.PUBLISHED));
+            bind(s, 4, values.getAsLong(Entries.STARRED));
+            bind(s, 5, title);
+            bind(s, 6, values.getAsString(Entries.URL));
+            bind(s, 7, values.getAsLong(Entries.STATUS));
+            bind(s, 8, values.getAsString(Entries.IMAGE));
+            bind(s, 9, values.getAsString(Entries.SNIPPET));
+            bind(s, 10, values.getAsLong(Entries.WORD_COUNT));
+            entryId = s.executeInsert();
+            if (entryId == -1) {
+                throw new SQLException("Failed to insert entry: " + grid);
+            }
+            
+            final SQLiteStatement search = insertSearchStatement;
+            search.bindLong(1, entryId);
+            bind(search, 2, title);
+            bind(search, 3, feedId);
+            bind(search, 4, plainTextSummary);
+            search.executeInsert();
+        } else {
+            final SQLiteStatement s = updateStatement;
+            bind(s, 1, feedId);
+            bind(s, 2, values.getAsLong(Entries.PUBLISHED));
+            bind(s, 3, values.getAsLong(Entries.STARRED));
+            bind(s, 4, values.getAsString(Entries.TITLE));
+            bind(s, 5, values.getAsString(Entries.URL));
+            bind(s, 6, values.getAsLong(Entries.STATUS));
+            bind(s, 7, values.getAsString(Entries.IMAGE));
+            bind(s, 8, values.getAsString(Entries.SNIPPET));
+            bind(s, 9, values.getAsLong(Entries.WORD_COUNT));
+            s.bindLong(10, entryId);
+            s.execute();
+            
+            // Title and feed changes are applied to the search index by
+            // triggers.
+            if (plainTextSummary != null) {
+                updateSearchStatement.bindString(1, plainTextSummary);
+                updateSearchStatement.bindLong(2, entryId);
+                updateSearchStatement.execute();
+            }
+        }
+        
+        if (summary != null) {
+            contentsStatement.bindLong(1, entryId);
+            contentsStatement.bindString(2, summary);
+            contentsStatement.execute();
+        }
+        
+        return entryId;
+    }
+    
+    /**
+     * Release compiled statements.
+     */
+    public void close() {
+        selectIdStatement.close();
+        selectPendingReadStatement.close();
+        insertStatement.close();
+        updateStatement.close();
+        contentsStatement.close();
+        insertSearchStatement.close();
+        updateSearchStatement.close();
+        feedStatements.close();
+    }
+    
+    private long findEntry(String grid) {
+        selectIdStatement.bindString(1, grid);
+        try {
+            return selectIdStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No entry with this GRID.
+            return -1;
+        }
+    }
+    
+    /**
+     * Check if an entry is waiting in the {@link Outbox} to be marked as read.
+     */
+    private boolean isReadPending(String grid) {
+        selectPendingReadStatement.bindString(1, grid);
+        return selectPendingReadStatement.simpleQueryForLong() != 0;
+    }
+    
+    /**
+     * Get an expression for updating an entry state with a bound value,
+     * unless a local change of this state is pending.
+     */
+    private static String coalesceUnlessPending(String column, int state) {
+        return "CASE WHEN EXISTS (SELECT 1 FROM " + OUTBOX_TABLE + " WHERE " + OUTBOX_TABLE
+                + "." + Outbox.GRID + "=" + ENTRIES_TABLE + "." + Entries.GRID + " AND "
+                + OUTBOX_TABLE + "." + Outbox.STATE + "=" + state + ") THEN " + column
+                + " ELSE COALESCE(?, " + column + ") END";
+    }
+    
+    private static void bind(SQLiteStatement s, int index, String value) {
+        if (value == null) {
+            s.bindNull(index);
+        } else {
+            s.bindString(index, value);
+        }
+    }
+    
+    private static void bind(SQLiteStatement s, int index, Long value) {
+        if (value == null) {
+            s.bindNull(index);
+        } else {
+            s.bindLong(index, value);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.provider;
+
+import static org.pixmob.feedme.provider.DatabaseHelper.FEEDS_TABLE;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.provider.FeedmeContract.Feeds;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Compiled statements for resolving the feed of an entry. Feeds are created
+ * when they are first referenced, and resolved feeds are cached: writing many
+ * entries from the same feed only requires a single lookup.
+ * <p>
+ * Feeds created before database version 5 are only known by their title,
+ * which is also their stream identifier. Such a feed is merged with its real
+ * stream identifier the first time an entry of this feed is written.
+ * @author Pixmob
+ */
+class FeedStatements {
+    private final SQLiteStatement selectIdStatement;
+    private final SQLiteStatement selectLegacyIdStatement;
+    private final SQLiteStatement insertStatement;
+    private final SQLiteStatement updateTitleStatement;
+    private final SQLiteStatement updateStreamIdStatement;
+    private final Map<String, Long> feedIds = new HashMap<String, Long>(16);
+    
+    public FeedStatements(final SQLiteDatabase db) {
+        selectIdStatement = db.compileStatement("SELECT " + Feeds._ID + " FROM " + FEEDS_TABLE
+                + " WHERE " + Feeds.STREAM_ID + "=?");
+        selectLegacyIdStatement = db.compileStatement("SELECT " + Feeds._ID + " FROM "
+                + FEEDS_TABLE + " WHERE " + Feeds.STREAM_ID + "=? AND " + Feeds.TITLE + "="
+                + Feeds.STREAM_ID);
+        insertStatement = db.compileStatement("INSERT INTO " + FEEDS_TABLE + " ("
+                + Feeds.STREAM_ID + ", " + Feeds.TITLE + ") VALUES (?, ?)");
+        updateTitleStatement = db.compileStatement("UPDATE " + FEEDS_TABLE + " SET "
+                + Feeds.TITLE + "=? WHERE " + Feeds._ID + "=?");
+        updateStreamIdStatement = db.compileStatement("UPDATE " + FEEDS_TABLE + " SET "
+                + Feeds.STREAM_ID + "=? WHERE " + Feeds._ID + "=?");
+    }
+    
+    /**
+     * Replace the columns {@link Entries#SOURCE} and {@link Entries#SOURCE_ID}
+     * with the column {@link Entries#FEED_ID}.
+     */
+    public void putFeedId(ContentValues values) {
+        final Long feedId = getFeedId(values);
+        values.remove(Entries.SOURCE);
+        values.remove(Entries.SOURCE_ID);
+        if (feedId != null) {
+            values.put(Entries.FEED_ID, feedId);
+        }
+    }
+    
+    /**
+     * Get the feed identifier of an entry, from the columns
+     * {@link Entries#SOURCE} and {@link Entries#SOURCE_ID}. If the feed stream
+     * identifier is missing, the feed title is used instead.
+     * @return the feed identifier, or <code>null</code> if the entry has no
+     *         feed
+     */
+    public Long getFeedId(ContentValues values) {
+        final String title = values.getAsString(Entries.SOURCE);
+        String streamId = values.getAsString(Entries.SOURCE_ID);
+        if (streamId == null) {
+            streamId = title;
+        }
+        return streamId == null ? null : getFeedId(streamId, title);
+    }
+    
+    /**
+     * Get a feed identifier from a stream identifier. The feed is created if
+     * it does not exist yet. The feed title is updated the first time a feed
+     * is resolved, if a title is set. If the stream identifier is unknown, a
+     * feed whose stream identifier is its title is merged with this stream
+     * identifier, instead of creating a new feed.
+     */
+    public long getFeedId(String streamId, String title) {
+        final Long cachedFeedId = feedIds.get(streamId);
+        if (cachedFeedId != null) {
+            return cachedFeedId;
+        }
+        
+        long feedId;
+        selectIdStatement.bindString(1, streamId);
+        try {
+            feedId = selectIdStatement.simpleQueryForLong();
+            if (title != null) {
+                updateTitleStatement.bindString(1, title);
+                updateTitleStatement.bindLong(2, feedId);
+                updateTitleStatement.execute();
+            }
+        } catch (SQLiteDoneException e) {
+            final Long legacyFeedId = title == null || title.equals(streamId) ? null
+                    : getLegacyFeedId(title);
+            if (legacyFeedId != null) {
+                updateStreamIdStatement.bindString(1, streamId);
+                updateStreamIdStatement.bindLong(2, legacyFeedId);
+                updateStreamIdStatement.execute();
+                feedIds.remove(title);
+                feedIds.put(streamId, legacyFeedId);
+                return legacyFeedId;
+            }
+            
+            // This feed is unknown.
+            insertStatement.bindString(1, streamId);
+            if (title == null) {
+                insertStatement.bindNull(2);
+            } else {
+                insertStatement.bindString(2, title);
+            }
+            feedId = insertStatement.executeInsert();
+            if (feedId == -1) {
+                throw new SQLException("Failed to insert feed: " + streamId);
+            }
+        }
+        feedIds.put(streamId, feedId);
+        
+        return feedId;
+    }
+    
+    /**
+     * Get the identifier of a feed created before database version 5, from
+     * its title.
+     * @return <code>null</code> if there is no such feed
+     */
+    private Long getLegacyFeedId(String title) {
+        selectLegacyIdStatement.bindString(1, title);
+        try {
+            return selectLegacyIdStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Release compiled statements.
+     */
+    public void close() {
+        selectIdStatement.close();
+        selectLegacyIdStatement.close();
+        insertStatement.close();
+        updateTitleStatement.close();
+        updateStreamIdStatement.close();
+    }
+}
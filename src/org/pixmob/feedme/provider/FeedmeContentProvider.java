@@ -17,22 +17,36 @@ package org.pixmob.feedme.provider;
 
 import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
 import static org.pixmob.feedme.Constants.TAG;
+import static org.pixmob.feedme.provider.DatabaseHelper.ENTRIES_SEARCH_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.ENTRIES_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.ENTRY_ARTICLES_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.ENTRY_CONTENTS_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.FEEDS_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.INSERT_SEARCH_ENTRY;
+import static org.pixmob.feedme.provider.DatabaseHelper.OUTBOX_TABLE;
+import static org.pixmob.feedme.provider.DatabaseHelper.SEARCH_BODY;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.provider.FeedmeContract.Feeds;
+import org.pixmob.feedme.provider.FeedmeContract.Outbox;
+import org.pixmob.feedme.util.HtmlUtils;
 
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
@@ -41,27 +55,99 @@ import android.util.Log;
 
 /**
  * The content provider for the application database.
+ * <p>
+ * Entry summaries are stored in a separate table, which is only joined when
+ * the summary column is requested: list queries do not load summaries.
+ * </p>
+ * <p>
+ * Entries reference their feed by identifier. The feed title is read from the
+ * feeds table, and feeds are created when entries are written.
+ * </p>
+ * <p>
+ * Entries are indexed in a full-text table for searching: the plain text of
+ * entry summaries is indexed, as well as entry and feed titles.
+ * </p>
+ * <p>
+ * Entry status changes and deletions are queued in the outbox, in the same
+ * transaction, unless they come from the synchronization service.
+ * </p>
  * @author Pixmob
  */
 public class FeedmeContentProvider extends ContentProvider {
-    private static final String ENTRIES_TABLE = "entries";
-    
     private static final int ENTRIES = 1;
     private static final int ENTRY_ID = 2;
+    private static final int FEEDS = 3;
+    private static final int FEED_ID = 4;
+    private static final int VACUUM = 5;
+    private static final int SEARCH = 6;
+    private static final int OUTBOX = 7;
+    private static final int PURGE = 8;
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+    /**
+     * Maximum number of database pages reclaimed by a single vacuum request.
+     */
+    private static final int MAX_VACUUM_PAGES = 512;
+    /**
+     * Maximum number of entries deleted by a single purge request.
+     */
+    private static final int MAX_PURGED_ENTRIES = 200;
     
     private static final UriMatcher URI_MATCHER;
     static {
         URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
         URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "entries", ENTRIES);
         URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "entries/*", ENTRY_ID);
+        URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "feeds", FEEDS);
+        URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "feeds/#", FEED_ID);
+        URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "vacuum", VACUUM);
+        URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "search/*", SEARCH);
+        URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "outbox", OUTBOX);
+        URI_MATCHER.addURI(FeedmeContract.AUTHORITY, "purge", PURGE);
+    }
+    
+    private static final String ENTRIES_WITH_CONTENTS_TABLES = ENTRIES_TABLE
+            + " LEFT OUTER JOIN " + ENTRY_CONTENTS_TABLE + " ON (" + ENTRIES_TABLE + "."
+            + Entries._ID + "=" + ENTRY_CONTENTS_TABLE + "." + Entries._ID + ")";
+    private static final Map<String, String> ENTRIES_PROJECTION;
+    private static final Map<String, String> ENTRIES_WITH_CONTENTS_PROJECTION;
+    static {
+        final String[] columns = { Entries._ID, Entries.GRID, Entries.FEED_ID,
+                Entries.PUBLISHED, Entries.TITLE, Entries.URL, Entries.STARRED, Entries.STATUS,
+                Entries.IMAGE, Entries.SNIPPET, Entries.WORD_COUNT };
+        ENTRIES_PROJECTION = new HashMap<String, String>(columns.length + 1);
+        for (final String column : columns) {
+            ENTRIES_PROJECTION.put(column, ENTRIES_TABLE + "." + column + " AS " + column);
+        }
+        // The feed title is only read for returned rows, with a primary key
+        // lookup.
+        ENTRIES_PROJECTION.put(Entries.SOURCE, "(SELECT " + FEEDS_TABLE + "." + Feeds.TITLE
+                + " FROM " + FEEDS_TABLE + " WHERE " + FEEDS_TABLE + "." + Feeds._ID + "="
+                + ENTRIES_TABLE + "." + Entries.FEED_ID + ") AS " + Entries.SOURCE);
+        ENTRIES_PROJECTION.put(Entries.ARTICLE, "(SELECT " + ENTRY_ARTICLES_TABLE + "."
+                + Entries.ARTICLE + " FROM " + ENTRY_ARTICLES_TABLE + " WHERE "
+                + ENTRY_ARTICLES_TABLE + "." + Entries._ID + "=" + ENTRIES_TABLE + "."
+                + Entries._ID + ") AS " + Entries.ARTICLE);
+        ENTRIES_PROJECTION.put(Entries.ARTICLE_ATTEMPTED, "(SELECT " + ENTRY_ARTICLES_TABLE
+                + "." + Entries.ARTICLE_ATTEMPTED + " FROM " + ENTRY_ARTICLES_TABLE + " WHERE "
+                + ENTRY_ARTICLES_TABLE + "." + Entries._ID + "=" + ENTRIES_TABLE + "."
+                + Entries._ID + ") AS " + Entries.ARTICLE_ATTEMPTED);
+        
+        ENTRIES_WITH_CONTENTS_PROJECTION = new HashMap<String, String>(ENTRIES_PROJECTION);
+        ENTRIES_WITH_CONTENTS_PROJECTION.put(Entries.SUMMARY, ENTRY_CONTENTS_TABLE + "."
+                + Entries.SUMMARY + " AS " + Entries.SUMMARY);
     }
     
     private SQLiteOpenHelper dbHelper;
+    /**
+     * Uris to notify once the current batch is committed, or <code>null</code>
+     * if the current thread is not applying a batch.
+     */
+    private final ThreadLocal<Set<Uri>> batchNotifications = new ThreadLocal<Set<Uri>>();
     
     @Override
     public boolean onCreate() {
         try {
-            dbHelper = new DatabaseHelper(getContext(), "feedme.db", null, 2);
+            dbHelper = new DatabaseHelper(getContext());
         } catch (Exception e) {
             Log.e(TAG, "Failed to create database", e);
             return false;
@@ -73,9 +159,16 @@ public class FeedmeContentProvider extends ContentProvider {
     public String getType(Uri uri) {
         switch (URI_MATCHER.match(uri)) {
             case ENTRIES:
+            case SEARCH:
                 return Entries.CONTENT_TYPE;
             case ENTRY_ID:
                 return Entries.CONTENT_ITEM_TYPE;
+            case FEEDS:
+                return Feeds.CONTENT_TYPE;
+            case FEED_ID:
+                return Feeds.CONTENT_ITEM_TYPE;
+            case OUTBOX:
+                return Outbox.CONTENT_TYPE;
             default:
                 throw new IllegalArgumentException("Unsupported Uri: " + uri);
         }
@@ -86,49 +179,249 @@ public class FeedmeContentProvider extends ContentProvider {
         final SQLiteDatabase db = dbHelper.getWritableDatabase();
         final int count;
         
+        // Entry contents are deleted by a trigger, as well as entries from a
+        // deleted feed.
         switch (URI_MATCHER.match(uri)) {
             case ENTRIES:
-                count = db.delete(ENTRIES_TABLE, selection, selectionArgs);
+                count = deleteEntries(db, uri, selection, selectionArgs);
                 if (DEVELOPER_MODE) {
                     Log.d(TAG, "All entries were deleted");
                 }
                 break;
             case ENTRY_ID:
-                final String id = uri.getPathSegments().get(1);
-                String fullSelection = Entries._ID + "='" + id + "'";
-                if (!TextUtils.isEmpty(selection)) {
-                    fullSelection += " AND (" + selection + ")";
-                }
-                count = db.delete(ENTRIES_TABLE, fullSelection, selectionArgs);
+                count = deleteEntries(db, uri, getEntrySelection(uri, selection),
+                    selectionArgs);
                 if (DEVELOPER_MODE) {
                     Log.d(TAG, "Entry deleted: " + uri);
                 }
                 break;
+            case FEEDS:
+                count = db.delete(FEEDS_TABLE, selection, selectionArgs);
+                if (DEVELOPER_MODE) {
+                    Log.d(TAG, "Feeds deleted: " + count);
+                }
+                break;
+            case FEED_ID:
+                count = db.delete(FEEDS_TABLE, getEntrySelection(uri, selection), selectionArgs);
+                if (DEVELOPER_MODE) {
+                    Log.d(TAG, "Feed deleted: " + uri);
+                }
+                break;
+            case OUTBOX:
+                // Nobody is observing the outbox.
+                return db.delete(OUTBOX_TABLE, selection, selectionArgs);
+            case PURGE:
+                count = purgeEntries(db, uri);
+                if (count != 0) {
+                    notifyChange(Entries.CONTENT_URI);
+                }
+                return count;
             default:
                 throw new IllegalArgumentException("Unsupported Uri: " + uri);
         }
         
-        getContext().getContentResolver().notifyChange(uri, null, false);
+        notifyChange(uri);
         return count;
     }
     
+    private static int deleteEntries(SQLiteDatabase db, Uri uri, String selection,
+            String[] selectionArgs) {
+        if (isSyncCaller(uri)) {
+            return db.delete(ENTRIES_TABLE, selection, selectionArgs);
+        }
+        
+        // Google Reader cannot delete entries: unread entries are marked as
+        // read, so that they are not downloaded again.
+        final int count;
+        db.beginTransaction();
+        try {
+            queueChange(db, Outbox.STATE_READ, true, Entries.STATUS + "="
+                    + Entries.STATUS_UNREAD, selection, selectionArgs);
+            count = db.delete(ENTRIES_TABLE, selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+    
+    /**
+     * Delete a batch of expired read entries. Expired entries are deleted by
+     * age first, then by feed: feed counters are used, so that only feeds
+     * having too many entries are scanned.
+     * @return the number of deleted entries
+     */
+    private static int purgeEntries(SQLiteDatabase db, Uri uri) {
+        final long publishedBefore;
+        final int maxEntriesPerFeed;
+        try {
+            publishedBefore = Long.parseLong(uri
+                    .getQueryParameter(FeedmeContract.QUERY_PARAMETER_BEFORE_PUBLISHED));
+            maxEntriesPerFeed = Integer.parseInt(uri
+                    .getQueryParameter(FeedmeContract.QUERY_PARAMETER_MAX_ENTRIES_PER_FEED));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid purge Uri: " + uri, e);
+        }
+        
+        // Only read entries are deleted.
+        String expired = Entries.STATUS + "=" + Entries.STATUS_READ;
+        if (Boolean.parseBoolean(uri
+                .getQueryParameter(FeedmeContract.QUERY_PARAMETER_KEEP_STARRED))) {
+            expired += " AND IFNULL(" + Entries.STARRED + ", 0)=0";
+        }
+        
+        if (publishedBefore > 0) {
+            final int count = deleteEntryBatch(db, "SELECT " + Entries._ID + " FROM "
+                    + ENTRIES_TABLE + " WHERE " + expired + " AND " + Entries.PUBLISHED + "<"
+                    + publishedBefore);
+            if (count != 0) {
+                return count;
+            }
+        }
+        if (maxEntriesPerFeed > 0) {
+            final Cursor c = db.query(FEEDS_TABLE, new String[] { Feeds._ID },
+                Feeds.TOTAL_COUNT + ">" + maxEntriesPerFeed, null, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    // The most recent entries of this feed are kept.
+                    final int count = deleteEntryBatch(db, "SELECT " + Entries._ID
+                            + " FROM (SELECT " + Entries._ID + ", " + Entries.STATUS + ", "
+                            + Entries.STARRED + " FROM " + ENTRIES_TABLE + " WHERE "
+                            + Entries.FEED_ID + "=" + c.getLong(0) + " ORDER BY "
+                            + Entries.PUBLISHED + " DESC LIMIT -1 OFFSET " + maxEntriesPerFeed
+                            + ") WHERE " + expired);
+                    if (count != 0) {
+                        return count;
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Delete the first entries selected by a query.
+     * @param query a query returning entry identifiers
+     */
+    private static int deleteEntryBatch(SQLiteDatabase db, String query) {
+        return db.delete(ENTRIES_TABLE, Entries._ID + " IN (" + query + " LIMIT "
+                + MAX_PURGED_ENTRIES + ")", null);
+    }
+    
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        switch (URI_MATCHER.match(uri)) {
+            case ENTRIES:
+                return insertEntry(uri, values);
+            case FEEDS:
+                return insertFeed(uri, values);
+            default:
+                throw new IllegalArgumentException("Unsupported Uri: " + uri);
+        }
+    }
+    
+    private Uri insertEntry(Uri uri, ContentValues values) {
+        final ContentValues entryValues = new ContentValues(values);
+        final String summary = entryValues.getAsString(Entries.SUMMARY);
+        entryValues.remove(Entries.SUMMARY);
+        final String article = entryValues.getAsString(Entries.ARTICLE);
+        entryValues.remove(Entries.ARTICLE);
+        // Entry pages are keyed on publication time, which is never NULL.
+        if (entryValues.getAsLong(Entries.PUBLISHED) == null) {
+            entryValues.put(Entries.PUBLISHED, 0L);
+        }
+        
         final SQLiteDatabase db = dbHelper.getWritableDatabase();
-        final long rowId = db.insertOrThrow(ENTRIES_TABLE, "notNull", values);
-        if (rowId == -1) {
-            throw new SQLException("Failed to insert new entry");
+        final long rowId;
+        db.beginTransaction();
+        try {
+            putFeedId(db, entryValues);
+            rowId = db.insertOrThrow(ENTRIES_TABLE, "notNull", entryValues);
+            if (rowId == -1) {
+                throw new SQLException("Failed to insert new entry");
+            }
+            db.execSQL(INSERT_SEARCH_ENTRY, new Object[] { rowId,
+                    entryValues.getAsString(Entries.TITLE),
+                    entryValues.getAsLong(Entries.FEED_ID),
+                    summary == null ? null : HtmlUtils.toPlainText(summary) });
+            if (summary != null) {
+                db.execSQL("INSERT OR REPLACE INTO " + ENTRY_CONTENTS_TABLE + " ("
+                        + Entries._ID + ", " + Entries.SUMMARY + ") VALUES (?, ?)",
+                    new Object[] { rowId, summary });
+            }
+            if (article != null) {
+                db.execSQL("INSERT INTO " + ENTRY_ARTICLES_TABLE + " (" + Entries._ID + ", "
+                        + Entries.ARTICLE + ") VALUES (?, ?)", new Object[] { rowId, article });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         
         final Uri entryUri = Uri.withAppendedPath(Entries.CONTENT_URI, String.valueOf(rowId));
         if (DEVELOPER_MODE) {
             Log.d(TAG, "New entry inserted: " + entryUri);
         }
-        getContext().getContentResolver().notifyChange(uri, null, false);
+        notifyChange(uri);
         
         return entryUri;
     }
     
+    private Uri insertFeed(Uri uri, ContentValues values) {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        final long rowId = db.insertOrThrow(FEEDS_TABLE, "notNull", values);
+        if (rowId == -1) {
+            throw new SQLException("Failed to insert new feed");
+        }
+        
+        final Uri feedUri = Uri.withAppendedPath(Feeds.CONTENT_URI, String.valueOf(rowId));
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "New feed inserted: " + feedUri);
+        }
+        notifyChange(uri);
+        
+        return feedUri;
+    }
+    
+    /**
+     * Insert entries, or update existing entries with the same GRID. Every
+     * entry is written in a single transaction, using compiled statements.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (URI_MATCHER.match(uri) != ENTRIES) {
+            throw new IllegalArgumentException("Unsupported Uri: " + uri);
+        }
+        if (values.length == 0) {
+            return 0;
+        }
+        
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final EntryUpsertStatements statements = new EntryUpsertStatements(db);
+            try {
+                for (final ContentValues entry : values) {
+                    statements.upsert(entry);
+                }
+            } finally {
+                statements.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Entries inserted or updated: " + values.length);
+        }
+        notifyChange(uri);
+        
+        return values.length;
+    }
+    
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
@@ -137,121 +430,416 @@ public class FeedmeContentProvider extends ContentProvider {
         }
         
         // Execute batch operations in a single transaction for performance.
+        // Change notifications are sent once the transaction is committed,
+        // instead of being sent for every operation.
+        final boolean outerBatch = batchNotifications.get() == null;
+        if (outerBatch) {
+            batchNotifications.set(new HashSet<Uri>(4));
+        }
+        final ContentProviderResult[] results;
         final SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.beginTransaction();
         try {
-            final int numOperations = operations.size();
-            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
-            for (int i = 0; i < numOperations; i++) {
-                results[i] = operations.get(i).apply(this, results, i);
+            db.beginTransaction();
+            try {
+                final int numOperations = operations.size();
+                results = new ContentProviderResult[numOperations];
+                for (int i = 0; i < numOperations; i++) {
+                    results[i] = operations.get(i).apply(this, results, i);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            
+            if (outerBatch) {
+                for (final Uri uri : batchNotifications.get()) {
+                    getContext().getContentResolver().notifyChange(uri, null, false);
+                }
             }
-            db.setTransactionSuccessful();
-            return results;
         } finally {
-            db.endTransaction();
+            if (outerBatch) {
+                batchNotifications.remove();
+            }
         }
+        
+        return results;
     }
     
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
         String realSortOrder = sortOrder;
-        
+        String limit = null;
         final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
-        switch (URI_MATCHER.match(uri)) {
+        
+        Uri notificationUri = uri;
+        final int match = URI_MATCHER.match(uri);
+        switch (match) {
             case ENTRIES:
-                qb.setTables(ENTRIES_TABLE);
-                if (TextUtils.isEmpty(realSortOrder)) {
+            case ENTRY_ID:
+            case SEARCH:
+                // Entry contents are only joined when they are requested.
+                if (isSummaryRequested(projection)) {
+                    qb.setTables(ENTRIES_WITH_CONTENTS_TABLES);
+                    qb.setProjectionMap(ENTRIES_WITH_CONTENTS_PROJECTION);
+                } else {
+                    qb.setTables(ENTRIES_TABLE);
+                    qb.setProjectionMap(ENTRIES_PROJECTION);
+                }
+                if (match == ENTRY_ID) {
+                    qb.appendWhere(ENTRIES_TABLE + "." + Entries._ID + "="
+                            + uri.getPathSegments().get(1));
+                } else if (uri.getQueryParameter(FeedmeContract.QUERY_PARAMETER_LIMIT) != null) {
+                    limit = appendPageSelection(uri, qb);
+                    realSortOrder = ENTRIES_TABLE + "." + Entries.PUBLISHED + " DESC, "
+                            + ENTRIES_TABLE + "." + Entries._ID + " DESC";
+                } else if (TextUtils.isEmpty(realSortOrder)) {
                     realSortOrder = Entries.PUBLISHED + " DESC";
                 }
+                if (match == SEARCH) {
+                    // Entries are selected from the search index, and
+                    // results are updated when entries change.
+                    final String matchExpression = getMatchExpression(uri.getPathSegments()
+                            .get(1));
+                    if (matchExpression == null) {
+                        qb.appendWhere("0");
+                    } else {
+                        qb.appendWhere(ENTRIES_TABLE + "." + Entries._ID + " IN (SELECT docid FROM "
+                                + ENTRIES_SEARCH_TABLE + " WHERE " + ENTRIES_SEARCH_TABLE
+                                + " MATCH ");
+                        qb.appendWhereEscapeString(matchExpression);
+                        qb.appendWhere(")");
+                    }
+                    notificationUri = Entries.CONTENT_URI;
+                }
                 break;
-            case ENTRY_ID:
-                qb.setTables(ENTRIES_TABLE);
-                qb.appendWhere(Entries._ID + "=" + uri.getPathSegments().get(1));
+            case FEEDS:
+                qb.setTables(FEEDS_TABLE);
+                if (TextUtils.isEmpty(realSortOrder)) {
+                    realSortOrder = Feeds.TITLE + " COLLATE NOCASE";
+                }
+                break;
+            case FEED_ID:
+                qb.setTables(FEEDS_TABLE);
+                qb.appendWhere(Feeds._ID + "=" + uri.getPathSegments().get(1));
+                break;
+            case OUTBOX:
+                qb.setTables(OUTBOX_TABLE);
+                if (TextUtils.isEmpty(realSortOrder)) {
+                    realSortOrder = Outbox._ID;
+                }
                 break;
+            default:
+                throw new IllegalArgumentException("Unsupported Uri: " + uri);
         }
         
         final SQLiteDatabase db = dbHelper.getReadableDatabase();
         final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null,
-            realSortOrder);
-        c.setNotificationUri(getContext().getContentResolver(), uri);
+            realSortOrder, limit);
+        c.setNotificationUri(getContext().getContentResolver(), notificationUri);
         
         return c;
     }
     
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = dbHelper.getWritableDatabase();
-        final int count;
+        final String fullSelection;
         switch (URI_MATCHER.match(uri)) {
             case ENTRIES:
-                count = db.update(ENTRIES_TABLE, values, selection, selectionArgs);
-                if (DEVELOPER_MODE) {
-                    Log.d(TAG, "All entries were updated");
-                }
+                fullSelection = selection;
                 break;
             case ENTRY_ID:
-                final String id = uri.getPathSegments().get(1);
-                String fullSelection = Entries._ID + "='" + id + "'";
-                if (!TextUtils.isEmpty(selection)) {
-                    fullSelection += " AND (" + selection + ")";
-                }
-                count = db.update(ENTRIES_TABLE, values, fullSelection, selectionArgs);
-                if (DEVELOPER_MODE) {
-                    Log.d(TAG, "Entry updated: " + uri);
-                }
+                fullSelection = getEntrySelection(uri, selection);
                 break;
+            case FEEDS:
+                return updateFeeds(uri, values, selection, selectionArgs);
+            case FEED_ID:
+                return updateFeeds(uri, values, getEntrySelection(uri, selection), selectionArgs);
+            case VACUUM:
+                return vacuum();
             default:
                 throw new IllegalArgumentException("Unsupported Uri: " + uri);
         }
         
-        getContext().getContentResolver().notifyChange(uri, null, false);
+        final ContentValues entryValues = new ContentValues(values);
+        final String summary = entryValues.getAsString(Entries.SUMMARY);
+        final boolean summaryUpdated = entryValues.containsKey(Entries.SUMMARY);
+        entryValues.remove(Entries.SUMMARY);
+        final String article = entryValues.getAsString(Entries.ARTICLE);
+        final Long articleAttempted = entryValues.getAsLong(Entries.ARTICLE_ATTEMPTED);
+        final boolean articleUpdated = entryValues.containsKey(Entries.ARTICLE)
+                || entryValues.containsKey(Entries.ARTICLE_ATTEMPTED);
+        entryValues.remove(Entries.ARTICLE);
+        entryValues.remove(Entries.ARTICLE_ATTEMPTED);
+        if (entryValues.containsKey(Entries.PUBLISHED)
+                && entryValues.getAsLong(Entries.PUBLISHED) == null) {
+            entryValues.put(Entries.PUBLISHED, 0L);
+        }
+        
+        final String where = TextUtils.isEmpty(fullSelection) ? "" : " WHERE " + fullSelection;
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int count;
+        db.beginTransaction();
+        try {
+            // Entry contents are updated first, since the selection may not
+            // match anymore once entries are updated.
+            final int numArgs = selectionArgs == null ? 0 : selectionArgs.length;
+            final Object[] bindArgs = new Object[numArgs + 1];
+            if (numArgs != 0) {
+                System.arraycopy(selectionArgs, 0, bindArgs, 1, numArgs);
+            }
+            if (summaryUpdated) {
+                bindArgs[0] = summary;
+                db.execSQL("INSERT OR REPLACE INTO " + ENTRY_CONTENTS_TABLE + " ("
+                        + Entries._ID + ", " + Entries.SUMMARY + ") SELECT " + Entries._ID
+                        + ", ? FROM " + ENTRIES_TABLE + where, bindArgs);
+                bindArgs[0] = summary == null ? null : HtmlUtils.toPlainText(summary);
+                db.execSQL("UPDATE " + ENTRIES_SEARCH_TABLE + " SET " + SEARCH_BODY
+                        + "=? WHERE docid IN (SELECT " + Entries._ID + " FROM " + ENTRIES_TABLE
+                        + where + ")", bindArgs);
+            }
+            if (articleUpdated) {
+                // The article and its download time are replaced together.
+                bindArgs[0] = article;
+                db.execSQL("INSERT OR REPLACE INTO " + ENTRY_ARTICLES_TABLE + " ("
+                        + Entries._ID + ", " + Entries.ARTICLE + ", " + Entries.ARTICLE_ATTEMPTED
+                        + ") SELECT " + Entries._ID + ", ?, " + articleAttempted + " FROM "
+                        + ENTRIES_TABLE + where, bindArgs);
+            }
+            if (!isSyncCaller(uri)) {
+                queueStateChanges(db, entryValues, fullSelection, selectionArgs);
+            }
+            
+            putFeedId(db, entryValues);
+            if (entryValues.size() != 0) {
+                count = db.update(ENTRIES_TABLE, entryValues, fullSelection, selectionArgs);
+            } else {
+                count = (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                        + ENTRIES_TABLE + where, selectionArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Entries updated: " + uri + " (" + count + ")");
+        }
+        
+        notifyChange(uri);
+        return count;
+    }
+    
+    private int updateFeeds(Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        final int count = db.update(FEEDS_TABLE, values, selection, selectionArgs);
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Feeds updated: " + uri + " (" + count + ")");
+        }
+        
+        notifyChange(uri);
         return count;
     }
     
     /**
-     * Helper class for managing the application database.
-     * @author Pixmob
+     * Reclaim unused database pages with an incremental vacuum.
+     * @return the number of reclaimed pages
      */
-    private static class DatabaseHelper extends SQLiteOpenHelper {
-        private static final String CREATE_ENTRIES_TABLE = "CREATE TABLE " + ENTRIES_TABLE + " ("
-                + Entries._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + Entries.GRID + " TEXT, "
-                + Entries.SOURCE + " TEXT, " + Entries.PUBLISHED + " LONG, " + Entries.STARRED
-                + " INTEGER, " + Entries.TITLE + " TEXT, " + Entries.SUMMARY + " TEXT, "
-                + Entries.URL + " TEXT, " + Entries.STATUS + " INTEGER, " + Entries.IMAGE
-                + " TEXT);";
+    private int vacuum() {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        final long freePagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count",
+            null);
+        final long autoVacuum = DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+        if (autoVacuum != AUTO_VACUUM_INCREMENTAL) {
+            // Databases created before incremental vacuum was enabled are
+            // converted with a full vacuum: this is only done once.
+            Log.i(TAG, "Enable incremental vacuum");
+            db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            // Each step of this statement reclaims a single page: every row
+            // must be read.
+            final Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + MAX_VACUUM_PAGES + ")",
+                null);
+            try {
+                while (c.moveToNext()) {
+                    // Nothing to read.
+                }
+            } finally {
+                c.close();
+            }
+        }
         
-        public DatabaseHelper(final Context context, final String name,
-                final CursorFactory cursorFactory, final int version) {
-            super(context, name, cursorFactory, version);
+        final int count = (int) (freePagesBefore - DatabaseUtils.longForQuery(db,
+            "PRAGMA freelist_count", null));
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Database pages reclaimed: " + count);
+        }
+        return count;
+    }
+    
+    /**
+     * Queue the status and starred changes of entries, before these entries
+     * are updated. Only entries whose state is actually changed are queued.
+     */
+    private static void queueStateChanges(SQLiteDatabase db, ContentValues entryValues,
+            String selection, String[] selectionArgs) {
+        final Integer status = entryValues.getAsInteger(Entries.STATUS);
+        if (status != null
+                && (status == Entries.STATUS_READ || status == Entries.STATUS_UNREAD)) {
+            queueChange(db, Outbox.STATE_READ, status == Entries.STATUS_READ, "IFNULL("
+                    + Entries.STATUS + ", 0)<>" + status, selection, selectionArgs);
+        }
+        final Integer starred = entryValues.getAsInteger(Entries.STARRED);
+        if (starred != null) {
+            queueChange(db, Outbox.STATE_STARRED, starred != 0, "IFNULL(" + Entries.STARRED
+                    + ", 0)<>" + starred, selection, selectionArgs);
+        }
+    }
+    
+    /**
+     * Queue a state change for entries matching a condition and a selection.
+     * A pending change of the same state is replaced.
+     */
+    private static void queueChange(SQLiteDatabase db, int state, boolean enabled,
+            String condition, String selection, String[] selectionArgs) {
+        String where = Entries.GRID + " NOT NULL AND " + condition;
+        if (!TextUtils.isEmpty(selection)) {
+            where += " AND (" + selection + ")";
+        }
+        db.execSQL("INSERT INTO " + OUTBOX_TABLE + " (" + Outbox.GRID + ", " + Outbox.STATE
+                + ", " + Outbox.ENABLED + ") SELECT " + Entries.GRID + ", " + state + ", "
+                + (enabled ? 1 : 0) + " FROM " + ENTRIES_TABLE + " WHERE " + where,
+            selectionArgs == null ? new Object[0] : selectionArgs);
+    }
+    
+    private static boolean isSyncCaller(Uri uri) {
+        return uri.getQueryParameter(FeedmeContract.QUERY_PARAMETER_CALLER_IS_SYNC) != null;
+    }
+    
+    /**
+     * Replace the feed columns of entry values with a feed identifier.
+     */
+    private static void putFeedId(SQLiteDatabase db, ContentValues entryValues) {
+        if (!entryValues.containsKey(Entries.SOURCE)
+                && !entryValues.containsKey(Entries.SOURCE_ID)) {
+            return;
         }
         
-        @Override
-        public void onCreate(SQLiteDatabase db) {
-            Log.i(TAG, "Create database");
-            db.execSQL(CREATE_ENTRIES_TABLE);
-            
-            if (DEVELOPER_MODE) {
-                Log.i(TAG, "Insert sample data into database");
-                
-                final String notNull = "not_null";
-                final ContentValues cv = new ContentValues();
-                
-                cv.put(Entries.GRID, "feed/http://www.androidnews.com/feed/");
-                cv.put(Entries.SOURCE, "Android News");
-                cv.put(Entries.PUBLISHED, System.currentTimeMillis());
-                cv.put(Entries.TITLE, "Feedme 1.0 is out!");
-                cv.put(Entries.SUMMARY, "Feedme 1.0 is out! Get this version while it's hot!");
-                cv.put(Entries.URL, "http://github.com/pixmob/feedme");
-                cv.put(Entries.STATUS, Entries.STATUS_UNREAD);
-                db.insertOrThrow(ENTRIES_TABLE, notNull, cv);
+        final FeedStatements feedStatements = new FeedStatements(db);
+        try {
+            feedStatements.putFeedId(entryValues);
+        } finally {
+            feedStatements.close();
+        }
+    }
+    
+    /**
+     * Notify observers of a change. When a batch is being applied, the
+     * notification is delayed until the batch is committed.
+     */
+    private void notifyChange(Uri uri) {
+        final int match = URI_MATCHER.match(uri);
+        final Set<Uri> pendingNotifications = batchNotifications.get();
+        if (pendingNotifications == null) {
+            notifyChangeNow(uri);
+            if (match == ENTRIES || match == ENTRY_ID) {
+                // Feed counters are updated with entries.
+                notifyChangeNow(Feeds.CONTENT_URI);
+            } else {
+                // Entries are deleted with their feed.
+                notifyChangeNow(Entries.CONTENT_URI);
             }
+        } else {
+            // Observers of an item are also notified when its directory
+            // changes: a single notification is enough.
+            pendingNotifications.add(Entries.CONTENT_URI);
+            pendingNotifications.add(Feeds.CONTENT_URI);
         }
-        
-        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            Log.w(TAG, "Reset database (all data will be destroyed)");
-            db.execSQL("DROP TABLE ID EXISTS " + ENTRIES_TABLE);
-            onCreate(db);
+    }
+    
+    private void notifyChangeNow(Uri uri) {
+        getContext().getContentResolver().notifyChange(uri, null, false);
+    }
+    
+    /**
+     * Get a selection for an entry or a feed {@link Uri}.
+     */
+    private static String getEntrySelection(Uri uri, String selection) {
+        final String id = uri.getPathSegments().get(1);
+        String fullSelection = Entries._ID + "='" + id + "'";
+        if (!TextUtils.isEmpty(selection)) {
+            fullSelection += " AND (" + selection + ")";
+        }
+        return fullSelection;
+    }
+    
+    /**
+     * Select a page of entries. Entries following the last entry of the
+     * previous page are selected with a key range, which is resolved with
+     * an index: the cost of a page does not depend on its position.
+     * @return the page size
+     */
+    private static String appendPageSelection(Uri uri, SQLiteQueryBuilder qb) {
+        final String limit = uri.getQueryParameter(FeedmeContract.QUERY_PARAMETER_LIMIT);
+        final String beforePublished = uri
+                .getQueryParameter(FeedmeContract.QUERY_PARAMETER_BEFORE_PUBLISHED);
+        final String beforeId = uri.getQueryParameter(FeedmeContract.QUERY_PARAMETER_BEFORE_ID);
+        try {
+            Integer.parseInt(limit);
+            if (beforePublished != null && beforeId != null) {
+                final long published = Long.parseLong(beforePublished);
+                final long id = Long.parseLong(beforeId);
+                final String publishedColumn = ENTRIES_TABLE + "." + Entries.PUBLISHED;
+                qb.appendWhere(publishedColumn + "<=" + published + " AND (" + publishedColumn
+                        + "<" + published + " OR " + ENTRIES_TABLE + "." + Entries._ID + "<" + id
+                        + ")");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page Uri: " + uri, e);
+        }
+        return limit;
+    }
+    
+    /**
+     * Get a full-text match expression from a search query. Every word of the
+     * query must match, as a prefix: special characters are ignored, so that
+     * any query is a valid expression.
+     * @return a match expression, or <code>null</code> if there is no word in
+     *         the query
+     */
+    private static String getMatchExpression(String query) {
+        final StringBuilder buf = new StringBuilder(query.length() + 8);
+        final int len = query.length();
+        for (int i = 0; i < len; ++i) {
+            final char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                buf.append(c);
+            } else if (buf.length() != 0 && buf.charAt(buf.length() - 1) != ' ') {
+                buf.append("* ");
+            }
+        }
+        if (buf.length() == 0) {
+            return null;
+        }
+        if (buf.charAt(buf.length() - 1) == ' ') {
+            buf.setLength(buf.length() - 1);
+        } else {
+            buf.append('*');
+        }
+        return buf.toString();
+    }
+    
+    private static boolean isSummaryRequested(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (final String column : projection) {
+            if (Entries.SUMMARY.equals(column)) {
+                return true;
+            }
         }
+        return false;
     }
 }
@@ -31,17 +31,245 @@ public class FeedmeContract {
      * The authority for the content provider.
      */
     public static final String AUTHORITY = "org.pixmob.feedme";
+    /**
+     * Query parameter for the maximum number of rows returned by a query.
+     */
+    static final String QUERY_PARAMETER_LIMIT = "limit";
+    /**
+     * Query parameter for selecting entries published before a time.
+     */
+    static final String QUERY_PARAMETER_BEFORE_PUBLISHED = "before_published";
+    /**
+     * Query parameter for selecting entries with a lower identifier, among
+     * entries published at the time set with
+     * {@link #QUERY_PARAMETER_BEFORE_PUBLISHED}.
+     */
+    static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+    /**
+     * Query parameter set by the synchronization service. See
+     * {@link #asSyncCaller(Uri)}.
+     */
+    static final String QUERY_PARAMETER_CALLER_IS_SYNC = "caller_is_sync";
+    /**
+     * Query parameter for the number of most recent entries of a feed which
+     * are kept by {@link #PURGE_URI}.
+     */
+    static final String QUERY_PARAMETER_MAX_ENTRIES_PER_FEED = "max_entries_per_feed";
+    /**
+     * Query parameter for keeping starred entries with {@link #PURGE_URI}.
+     */
+    static final String QUERY_PARAMETER_KEEP_STARRED = "keep_starred";
+    
+    /**
+     * Updating this {@link Uri} reclaims unused database space, a few pages at
+     * a time. The number of reclaimed pages is returned: <code>0</code> means
+     * there is nothing left to reclaim. This operation may be slow, and must
+     * not be run from the UI thread.
+     */
+    public static final Uri VACUUM_URI = new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT)
+            .authority(AUTHORITY).appendPath("vacuum").build();
+    /**
+     * Deleting this {@link Uri} deletes expired read entries, a small batch at
+     * a time, so that the database is never locked for a long time. The
+     * number of deleted entries is returned: <code>0</code> means there is
+     * nothing left to delete. Use
+     * {@link #getPurgeUri(long, int, boolean)} to select expired entries.
+     * These deletions are not sent to Google Reader.
+     */
+    public static final Uri PURGE_URI = new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT)
+            .authority(AUTHORITY).appendPath("purge").build();
+    
+    /**
+     * Get a {@link Uri} for changes made by the synchronization service. Entry
+     * status changes and deletions are sent to Google Reader through the
+     * {@link Outbox}, unless they are made with such a {@link Uri}: changes
+     * coming from the server are not sent back.
+     */
+    public static Uri asSyncCaller(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_CALLER_IS_SYNC, "true")
+                .build();
+    }
+    
+    /**
+     * Get a {@link Uri} for deleting expired read entries. See
+     * {@link #PURGE_URI}.
+     * @param publishedBefore entries published before this time are expired,
+     *            or <code>0</code> to ignore entry age
+     * @param maxEntriesPerFeed entries following the most recent entries of a
+     *            feed are expired, or <code>0</code> to keep any number of
+     *            entries
+     * @param keepStarred <code>true</code> if starred entries never expire
+     */
+    public static Uri getPurgeUri(long publishedBefore, int maxEntriesPerFeed,
+            boolean keepStarred) {
+        return PURGE_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_BEFORE_PUBLISHED,
+                    String.valueOf(publishedBefore))
+                .appendQueryParameter(QUERY_PARAMETER_MAX_ENTRIES_PER_FEED,
+                    String.valueOf(maxEntriesPerFeed))
+                .appendQueryParameter(QUERY_PARAMETER_KEEP_STARRED, String.valueOf(keepStarred))
+                .build();
+    }
     
     protected static interface EntriesColumns {
         String GRID = "grid";
+        /**
+         * The feed identifier of this entry.
+         */
+        String FEED_ID = "feed_id";
+        /**
+         * The feed title. This column is read from the feeds table: when an
+         * entry is written, the feed is created or updated.
+         */
         String SOURCE = "source";
+        /**
+         * The Google Reader stream identifier of the feed, such as
+         * <code>feed/http://www.example.com/rss</code>. This column is only
+         * used when an entry is written: the feed is resolved from this value.
+         */
+        String SOURCE_ID = "source_id";
         String PUBLISHED = "published";
         String TITLE = "title";
+        /**
+         * The entry content, as sanitized HTML.
+         */
         String SUMMARY = "summary";
+        /**
+         * A short plain text extract of the entry content.
+         */
+        String SNIPPET = "snippet";
+        /**
+         * The number of words of the entry content.
+         */
+        String WORD_COUNT = "word_count";
         String URL = "url";
         String STARRED = "starred";
         String STATUS = "status";
         String IMAGE = "image";
+        /**
+         * The full article page, downloaded for offline reading. This column
+         * is <code>null</code> until the article is downloaded.
+         */
+        String ARTICLE = "article";
+        /**
+         * The last time the article was downloaded, or an attempt failed, in
+         * milliseconds. A failed download is retried after a delay, instead
+         * of every synchronization.
+         */
+        String ARTICLE_ATTEMPTED = "article_attempted";
+    }
+    
+    protected static interface FeedsColumns {
+        String STREAM_ID = "stream_id";
+        String TITLE = "title";
+        /**
+         * Number of unread entries for this feed. This column is maintained by
+         * the content provider, and is read-only.
+         */
+        String UNREAD_COUNT = "unread_count";
+        /**
+         * Number of entries for this feed. This column is maintained by the
+         * content provider, and is read-only.
+         */
+        String TOTAL_COUNT = "total_count";
+        /**
+         * Last time the feed icon was downloaded, in milliseconds.
+         */
+        String ICON_UPDATED = "icon_updated";
+        /**
+         * Last time a download of the feed icon was attempted, in
+         * milliseconds, whether it succeeded or not.
+         */
+        String ICON_ATTEMPTED = "icon_attempted";
+        /**
+         * Publication time of the most recent entry of this feed, in
+         * milliseconds.
+         */
+        String LAST_PUBLISHED = "last_published";
+        /**
+         * Average interval between two entries of this feed, in
+         * milliseconds. This column is <code>null</code> until enough entries
+         * are downloaded.
+         */
+        String PUBLISH_INTERVAL = "publish_interval";
+        /**
+         * Time when this feed should be downloaded again, in milliseconds.
+         * This column is <code>null</code> if the feed was never downloaded
+         * on its own.
+         */
+        String NEXT_POLL = "next_poll";
+    }
+    
+    protected static interface OutboxColumns {
+        /**
+         * The Google Reader identifier of the changed entry.
+         */
+        String GRID = "grid";
+        /**
+         * The changed state: {@link Outbox#STATE_READ} or
+         * {@link Outbox#STATE_STARRED}.
+         */
+        String STATE = "state";
+        /**
+         * <code>1</code> if the state is set, <code>0</code> if it is
+         * cleared.
+         */
+        String ENABLED = "enabled";
+    }
+    
+    /**
+     * Table for feeds. Deleting a feed deletes its entries.
+     * @author Pixmob
+     */
+    public static class Feeds implements BaseColumns, FeedsColumns {
+        /**
+         * The content:// style URI for this table.
+         */
+        public static final Uri CONTENT_URI = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT).authority(AUTHORITY).appendPath("feeds")
+                .build();
+        /**
+         * The MIME type of a {@link #CONTENT_URI} subdirectory of a single
+         * feed.
+         */
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/feed";
+        /**
+         * The MIME type of {@link #CONTENT_TYPE} providing a directory of
+         * feeds.
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/feed";
+    }
+    
+    /**
+     * Table for entry changes waiting to be sent to Google Reader. Rows are
+     * added by the content provider when entries are updated or deleted: a
+     * read entry is marked as read, and a deleted entry is marked as read so
+     * that it is not downloaded again. There is a single row for each entry
+     * and state: when an entry is changed several times, only its last state
+     * is sent. This table can only be queried, and rows are deleted once they
+     * are sent.
+     * @author Pixmob
+     */
+    public static class Outbox implements BaseColumns, OutboxColumns {
+        /**
+         * The content:// style URI for this table.
+         */
+        public static final Uri CONTENT_URI = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT).authority(AUTHORITY).appendPath("outbox")
+                .build();
+        /**
+         * The MIME type of {@link #CONTENT_TYPE} providing a directory of
+         * entry changes.
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/outbox";
+        /**
+         * State of a read entry.
+         */
+        public static final int STATE_READ = 1;
+        /**
+         * State of a starred entry.
+         */
+        public static final int STATE_STARRED = 2;
     }
     
     /**
@@ -55,6 +283,13 @@ public class FeedmeContract {
         public static final Uri CONTENT_URI = new Uri.Builder()
                 .scheme(ContentResolver.SCHEME_CONTENT).authority(AUTHORITY).appendPath("entries")
                 .build();
+        /**
+         * The content:// style URI for searching entries. Use
+         * {@link #getSearchUri(String)} to build a search query.
+         */
+        public static final Uri SEARCH_URI = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT).authority(AUTHORITY).appendPath("search")
+                .build();
         /**
          * The MIME type of a {@link #CONTENT_URI} subdirectory of a single
          * entry.
@@ -75,12 +310,20 @@ public class FeedmeContract {
         public static final int STATUS_READ = 2;
         /**
          * Status for an entry which is about to be deleted.
+         * @deprecated deleted entries are queued in the {@link Outbox}
          */
+        @Deprecated
         public static final int STATUS_PENDING_DELETE = 3;
         /**
          * Status for an entry which is about to be starred.
+         * @deprecated starred entries are queued in the {@link Outbox}
          */
+        @Deprecated
         public static final int STATUS_PENDING_STARRED = 4;
+        /**
+         * Maximum length of {@link #SNIPPET} values.
+         */
+        public static final int MAX_SNIPPET_LENGTH = 200;
         
         /**
          * Get a entry {@link URI} from a Google Reader identifier.
@@ -102,5 +345,40 @@ public class FeedmeContract {
             
             return uri;
         }
+        
+        /**
+         * Get a {@link Uri} for the first page of entries. Entries are sorted
+         * from the most recent one. Use
+         * {@link #getPageUri(int, long, long)} with the last entry of a page
+         * to get the next page: pages are selected from their first key
+         * instead of an offset, which would require skipping entries.
+         */
+        public static Uri getPageUri(int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize)).build();
+        }
+        
+        /**
+         * Get a {@link Uri} for a page of entries following an entry.
+         * @param lastPublished the publication time of the last entry of the
+         *            previous page
+         * @param lastId the identifier of the last entry of the previous page
+         */
+        public static Uri getPageUri(int pageSize, long lastPublished, long lastId) {
+            return getPageUri(pageSize).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_BEFORE_PUBLISHED,
+                        String.valueOf(lastPublished))
+                    .appendQueryParameter(QUERY_PARAMETER_BEFORE_ID, String.valueOf(lastId))
+                    .build();
+        }
+        
+        /**
+         * Get a {@link Uri} for searching entries whose title, feed title or
+         * summary contain words starting with every word of a query. Search
+         * results can be filtered with a selection, like any entries query.
+         */
+        public static Uri getSearchUri(String query) {
+            return SEARCH_URI.buildUpon().appendPath(query).build();
+        }
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.SHARED_PREFERENCES;
+import static org.pixmob.feedme.Constants.SP_KEY_PREFETCH_ARTICLES;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.pixmob.feedme.net.NetworkClient;
+import org.pixmob.feedme.provider.FeedmeContract;
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.util.HtmlUtils;
+import org.pixmob.feedme.util.NetworkUtils;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Download full article pages of unread entries, so that entries can be read
+ * offline. Articles are only downloaded on an unmetered network, if the user
+ * enabled this feature. Articles are sanitized like entry summaries, and they
+ * are written in batches: a batch sends a single change notification.
+ * <p>
+ * A failed download, such as an article which is too large, is recorded with
+ * the entry: the article is not downloaded again until a retry delay has
+ * elapsed.
+ * </p>
+ * @author Pixmob
+ */
+class ArticlePrefetcher {
+    private static final int MAX_ARTICLES = 50;
+    /**
+     * Maximum length of an article page, in bytes.
+     */
+    private static final int MAX_ARTICLE_LENGTH = 256 * 1024;
+    /**
+     * Number of articles written with a single batch. Downloaded articles
+     * are kept in memory until they are written.
+     */
+    private static final int ARTICLES_PER_BATCH = 10;
+    /**
+     * Delay before an article which failed to download is tried again.
+     */
+    private static final long RETRY_INTERVAL = DateUtils.DAY_IN_MILLIS;
+    private final Context context;
+    private final ContentResolver contentResolver;
+    
+    public ArticlePrefetcher(final Context context) {
+        this.context = context;
+        contentResolver = context.getContentResolver();
+    }
+    
+    /**
+     * Download articles, if allowed.
+     * @return the number of downloaded articles
+     */
+    public int prefetch() {
+        if (!context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE).getBoolean(
+            SP_KEY_PREFETCH_ARTICLES, false)) {
+            return 0;
+        }
+        if (!NetworkUtils.isUnmeteredNetwork(context)) {
+            Log.i(TAG, "Articles are not downloaded on a metered network");
+            return 0;
+        }
+        
+        // The most recent entries are read first. The article columns are
+        // selected, so that they can be used in the selection.
+        final long now = System.currentTimeMillis();
+        final Cursor c = contentResolver.query(Entries.getPageUri(MAX_ARTICLES), new String[] {
+                Entries._ID, Entries.URL, Entries.ARTICLE, Entries.ARTICLE_ATTEMPTED },
+            Entries.STATUS + "=? AND " + Entries.URL + " NOT NULL AND " + Entries.ARTICLE
+                    + " IS NULL AND (" + Entries.ARTICLE_ATTEMPTED + " IS NULL OR "
+                    + Entries.ARTICLE_ATTEMPTED + "<" + (now - RETRY_INTERVAL) + ")",
+            new String[] { String.valueOf(Entries.STATUS_UNREAD) }, null);
+        final long[] entryIds;
+        final String[] urls;
+        try {
+            entryIds = new long[c.getCount()];
+            urls = new String[entryIds.length];
+            for (int i = 0; c.moveToNext(); ++i) {
+                entryIds[i] = c.getLong(0);
+                urls[i] = c.getString(1);
+            }
+        } finally {
+            c.close();
+        }
+        if (entryIds.length == 0) {
+            return 0;
+        }
+        
+        final NetworkClient client = new NetworkClient(context);
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(32 * 1024);
+        final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(
+                ARTICLES_PER_BATCH);
+        int count = 0;
+        // Number of articles downloaded in the current batch: the batch also
+        // records failed downloads.
+        int batchCount = 0;
+        try {
+            for (int i = 0; i < entryIds.length; ++i) {
+                buf.reset();
+                String article;
+                try {
+                    final String charset = client.download(urls[i], buf, MAX_ARTICLE_LENGTH);
+                    article = HtmlUtils.sanitize(buf.toString(charset == null ? "UTF-8"
+                            : charset));
+                    ++batchCount;
+                } catch (IOException e) {
+                    if (DEVELOPER_MODE) {
+                        Log.d(TAG, "Failed to download article: " + urls[i], e);
+                    }
+                    article = null;
+                }
+                
+                ops.add(ContentProviderOperation
+                        .newUpdate(Uri.withAppendedPath(Entries.CONTENT_URI,
+                            String.valueOf(entryIds[i]))).withValue(Entries.ARTICLE, article)
+                        .withValue(Entries.ARTICLE_ATTEMPTED, now).build());
+                if (ops.size() == ARTICLES_PER_BATCH) {
+                    if (write(ops)) {
+                        count += batchCount;
+                    }
+                    batchCount = 0;
+                }
+            }
+            if (write(ops)) {
+                count += batchCount;
+            }
+        } finally {
+            client.close();
+        }
+        return count;
+    }
+    
+    /**
+     * Write downloaded articles and failed downloads with a single batch.
+     * @return <code>true</code> if the batch was written
+     */
+    private boolean write(ArrayList<ContentProviderOperation> ops) {
+        if (ops.isEmpty()) {
+            return true;
+        }
+        try {
+            contentResolver.applyBatch(FeedmeContract.AUTHORITY, ops);
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to write articles", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Failed to write articles", e);
+        } finally {
+            ops.clear();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+
+import org.pixmob.actionservice.ActionExecutionFailedException;
+import org.pixmob.actionservice.ActionService;
+import org.pixmob.feedme.net.EntriesParserBenchmark;
+
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Run performance benchmarks, in developer mode only. This service is not
+ * exported, and it requires a signature permission: on an emulator or a
+ * development device, benchmarks are started with <code>adb root</code>,
+ * then this command:
+ * <code>adb shell am startservice -n org.pixmob.feedme/.service.BenchmarkService</code>
+ * . Results are written to the log.
+ * @author Pixmob
+ */
+public class BenchmarkService extends ActionService {
+    public BenchmarkService() {
+        super("Feedme/Benchmark");
+    }
+    
+    @Override
+    protected void onHandleAction(Intent intent) throws ActionExecutionFailedException,
+            InterruptedException {
+        if (!DEVELOPER_MODE) {
+            Log.w(TAG, "Benchmarks are only available in developer mode");
+            return;
+        }
+        
+        Log.i(TAG, "Start benchmarks");
+        try {
+            new EntriesParserBenchmark(getCacheDir()).run();
+        } catch (IOException e) {
+            throw new ActionExecutionFailedException("Benchmark failed", e);
+        }
+        Log.i(TAG, "Benchmarks done");
+    }
+}
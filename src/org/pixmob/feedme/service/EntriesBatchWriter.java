@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pixmob.feedme.net.EntriesParser;
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.util.Log;
+
+/**
+ * Store downloaded entries into the database. Entries are written in bounded
+ * batches while the feed is being parsed, so that memory usage does not depend
+ * on the number of downloaded entries.
+ * @author Pixmob
+ */
+class EntriesBatchWriter implements EntriesParser.EntryHandler {
+    private static final int BATCH_SIZE = 50;
+    private final ContentResolver contentResolver;
+    private final EntryPreprocessor preprocessor = new EntryPreprocessor();
+    private final FeedPollingPolicy pollingPolicy;
+    private final List<ContentValues> pendingEntries = new ArrayList<ContentValues>(BATCH_SIZE);
+    private int entryCount;
+    private int unreadCount;
+    
+    public EntriesBatchWriter(final ContentResolver contentResolver,
+            final FeedPollingPolicy pollingPolicy) {
+        this.contentResolver = contentResolver;
+        this.pollingPolicy = pollingPolicy;
+    }
+    
+    @Override
+    public void onEntry(ContentValues entry) throws IOException {
+        pendingEntries.add(entry);
+        if (pendingEntries.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+    
+    @Override
+    public void onEndOfFeed() throws IOException {
+        flush();
+    }
+    
+    /**
+     * Get the number of entries written to the database.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+    
+    /**
+     * Get the number of unread entries written to the database.
+     */
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+    
+    /**
+     * Write pending entries to the database.
+     */
+    public void flush() throws IOException {
+        if (pendingEntries.isEmpty()) {
+            return;
+        }
+        
+        // Entries are inserted or updated by the content provider in a
+        // single call, instead of one operation per entry.
+        final ContentValues[] entries = pendingEntries.toArray(new ContentValues[pendingEntries
+                .size()]);
+        pendingEntries.clear();
+        for (final ContentValues entry : entries) {
+            // Set the entry status to UNREAD by default.
+            if (!entry.containsKey(Entries.STATUS)) {
+                entry.put(Entries.STATUS, Entries.STATUS_UNREAD);
+            }
+            if (Entries.STATUS_UNREAD == entry.getAsInteger(Entries.STATUS)) {
+                unreadCount++;
+            }
+            pollingPolicy.record(entry);
+            preprocessor.process(entry);
+        }
+        
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Insert " + entries.length + " new entrie(s) into database");
+        }
+        
+        try {
+            contentResolver.bulkInsert(Entries.CONTENT_URI, entries);
+        } catch (SQLException e) {
+            throw new IOException("Failed to insert new entries into database", e);
+        }
+        entryCount += entries.length;
+    }
+}
@@ -19,26 +19,17 @@ import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
 import static org.pixmob.feedme.Constants.TAG;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.pixmob.actionservice.ActionExecutionFailedException;
 import org.pixmob.actionservice.ActionService;
 import org.pixmob.feedme.R;
 import org.pixmob.feedme.net.NetworkClient;
-import org.pixmob.feedme.provider.FeedmeContract;
-import org.pixmob.feedme.provider.FeedmeContract.Entries;
 import org.pixmob.feedme.ui.Feedme;
 
 import android.app.Notification;
 import android.app.PendingIntent;
-import android.content.ContentProviderOperation;
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Intent;
-import android.content.OperationApplicationException;
-import android.net.Uri;
-import android.os.RemoteException;
+import android.database.SQLException;
 import android.util.Log;
 
 /**
@@ -47,6 +38,17 @@ import android.util.Log;
  * @author Pixmob
  */
 public class EntriesDownloadService extends ActionService {
+    /**
+     * Intent extra set for periodic synchronizations: only feeds due for
+     * polling are downloaded.
+     */
+    public static final String EXTRA_SCHEDULED = "scheduled";
+    /**
+     * Intent extra set when a wake lock was acquired by
+     * {@link SyncScheduler}: this wake lock is released once the
+     * synchronization is done.
+     */
+    static final String EXTRA_WAKE_LOCK = "wakeLock";
     private PendingIntent openEntriesIntent;
     
     public EntriesDownloadService() {
@@ -70,20 +72,23 @@ public class EntriesDownloadService extends ActionService {
         startForeground(R.string.downloading_entries, n);
         
         try {
-            downloadEntries();
+            downloadEntries(intent.getBooleanExtra(EXTRA_SCHEDULED, false));
         } finally {
             stopForeground(true);
+            if (intent.getBooleanExtra(EXTRA_WAKE_LOCK, false)) {
+                SyncScheduler.releaseWakeLock();
+            }
         }
     }
     
-    private void downloadEntries() throws ActionExecutionFailedException {
+    private void downloadEntries(boolean scheduled) throws ActionExecutionFailedException {
         final long start = System.currentTimeMillis();
         Log.i(TAG, "Start entries download");
         
         final NetworkClient client = new NetworkClient(this);
-        final List<ContentValues> entries = new ArrayList<ContentValues>(20);
+        final int entryCount;
         try {
-            client.downloadUnreadEntries(entries);
+            entryCount = new EntriesSyncEngine(this, client).sync(scheduled);
         } catch (IOException e) {
             throw new ActionExecutionFailedException(
                     "Failed to download entries from Google Reader", e);
@@ -91,60 +96,24 @@ public class EntriesDownloadService extends ActionService {
             client.close();
         }
         
-        Log.i(TAG, "Downloaded entries: " + entries.size());
+        Log.i(TAG, "Downloaded entries: " + entryCount);
         
-        final ContentResolver cr = getContentResolver();
-        final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(
-                entries.size());
-        int nbUnread = 0;
-        for (final ContentValues entry : entries) {
-            // Set the entry status to UNREAD by default.
-            if (!entry.containsKey(Entries.STATUS)) {
-                entry.put(Entries.STATUS, Entries.STATUS_UNREAD);
-            }
-            
-            // Check if this entry already exists in the database.
-            final ContentProviderOperation op;
-            final Uri entryUri = Entries.getEntryUri(cr, entry.getAsString(Entries.GRID));
-            if (entryUri == null) {
-                // We do not know this entry: this is an insert.
-                op = ContentProviderOperation.newInsert(Entries.CONTENT_URI).withValues(entry)
-                        .build();
-            } else {
-                // This entry is already known: update it.
-                op = ContentProviderOperation.newUpdate(entryUri).withValues(entry).build();
-            }
-            
-            if (Entries.STATUS_UNREAD == entry.getAsInteger(Entries.STATUS)) {
-                nbUnread++;
-            }
-            
-            ops.add(op);
+        // Old entries are deleted while the service is running, away from
+        // the UI thread.
+        try {
+            new EntriesRetentionPolicy(this).apply();
+        } catch (SQLException e) {
+            Log.w(TAG, "Failed to delete old entries", e);
         }
         
+        // Thumbnails are downloaded in the background: these images are
+        // not downloaded while the entries list is scrolled.
+        final int thumbnailCount = new ThumbnailPrefetcher(this).prefetch();
+        final int faviconCount = new FaviconPrefetcher(this).prefetch();
+        final int articleCount = new ArticlePrefetcher(this).prefetch();
         if (DEVELOPER_MODE) {
-            Log.d(TAG, "Insert " + ops.size() + " new entrie(s) into database");
-        }
-        
-        // If there is no more unread entries, the user has read everything.
-        // The database can be updated to mark as read every entries.
-        if (nbUnread == 0) {
-            final ContentValues cv = new ContentValues();
-            cv.put(Entries.STATUS, Entries.STATUS_READ);
-            ops.add(ContentProviderOperation.newUpdate(Entries.CONTENT_URI).withValues(cv)
-                    .withSelection(Entries.STATUS + "=?",
-                        new String[] { String.valueOf(Entries.STATUS_UNREAD) }).build());
-        }
-        
-        try {
-            getContentResolver().applyBatch(FeedmeContract.AUTHORITY, ops);
-        } catch (RemoteException e) {
-            Log.e(TAG, "Failed to insert new entries", e);
-            throw new ActionExecutionFailedException("Failed to insert "
-                    + "new entries into database", e);
-        } catch (OperationApplicationException e) {
-            throw new ActionExecutionFailedException("Failed to insert "
-                    + "new entries into database", e);
+            Log.d(TAG, "Downloaded thumbnails: " + thumbnailCount + ", feed icons: "
+                    + faviconCount + ", articles: " + articleCount);
         }
         
         if (DEVELOPER_MODE) {
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pixmob.feedme.net.NetworkClient;
+import org.pixmob.feedme.net.NetworkClientException;
+import org.pixmob.feedme.provider.FeedmeContract.Outbox;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Send local entry changes to Google Reader. Pending changes are grouped by
+ * state, and each group is sent with as few requests as possible: the radio
+ * is not woken up for every read entry. Changes are removed from the outbox
+ * once they are sent, and kept for the next synchronization otherwise.
+ * <p>
+ * Each group is sent independently: a failed group does not prevent other
+ * groups from being sent. Changes rejected by the server with a client
+ * error (other than an authentication error) are dropped, since sending them
+ * again would fail the same way, and pending changes prevent the server
+ * state of their entries from being downloaded.
+ * </p>
+ * @author Pixmob
+ */
+class EntriesOutboxSender {
+    /**
+     * Maximum number of entries edited with a single request.
+     */
+    private static final int MAX_ENTRIES_PER_REQUEST = 100;
+    private final ContentResolver contentResolver;
+    private final NetworkClient client;
+    
+    public EntriesOutboxSender(final ContentResolver contentResolver,
+            final NetworkClient client) {
+        this.contentResolver = contentResolver;
+        this.client = client;
+    }
+    
+    /**
+     * Send pending changes.
+     * @return the number of sent changes
+     * @throws IOException if the server cannot be reached: remaining changes
+     *             are kept for the next synchronization
+     */
+    public int send() throws IOException {
+        int count = 0;
+        count += send(Outbox.STATE_READ, true);
+        count += send(Outbox.STATE_READ, false);
+        count += send(Outbox.STATE_STARRED, true);
+        count += send(Outbox.STATE_STARRED, false);
+        if (count != 0) {
+            Log.i(TAG, "Entry changes sent: " + count);
+        }
+        return count;
+    }
+    
+    /**
+     * Send pending changes for a state.
+     * @return the number of sent changes
+     */
+    private int send(int state, boolean enabled) throws IOException {
+        final Cursor c = contentResolver.query(Outbox.CONTENT_URI, new String[] { Outbox._ID,
+                Outbox.GRID }, Outbox.STATE + "=? AND " + Outbox.ENABLED + "=?", new String[] {
+                String.valueOf(state), enabled ? "1" : "0" }, null);
+        final long[] ids;
+        final List<String> grids;
+        try {
+            ids = new long[c.getCount()];
+            grids = new ArrayList<String>(ids.length);
+            for (int i = 0; c.moveToNext(); ++i) {
+                ids[i] = c.getLong(0);
+                grids.add(c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        
+        int count = 0;
+        for (int start = 0; start < ids.length; start += MAX_ENTRIES_PER_REQUEST) {
+            final int end = Math.min(start + MAX_ENTRIES_PER_REQUEST, ids.length);
+            try {
+                client.editEntries(state, enabled, grids.subList(start, end));
+            } catch (NetworkClientException e) {
+                final int statusCode = e.getStatusCode();
+                if (statusCode == 0) {
+                    throw e;
+                }
+                if (!isRejected(statusCode)) {
+                    // This error may be temporary: remaining changes of this
+                    // group are sent by the next synchronization.
+                    Log.w(TAG, "Failed to send entry changes", e);
+                    return count;
+                }
+                Log.w(TAG, "Entry changes rejected by the server: " + (end - start), e);
+                delete(ids, start, end);
+                continue;
+            }
+            delete(ids, start, end);
+            count += end - start;
+            
+            if (DEVELOPER_MODE) {
+                Log.d(TAG, "Entry changes sent: " + end + "/" + ids.length);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Delete changes from the outbox. Changes are deleted by identifier: an
+     * entry changed again while a request was sent is replaced with a new
+     * row, which is kept.
+     */
+    private void delete(long[] ids, int start, int end) {
+        final StringBuilder selection = new StringBuilder((end - start) * 8);
+        selection.append(Outbox._ID).append(" IN (");
+        for (int i = start; i < end; ++i) {
+            if (i != start) {
+                selection.append(',');
+            }
+            selection.append(ids[i]);
+        }
+        selection.append(')');
+        contentResolver.delete(Outbox.CONTENT_URI, selection.toString(), null);
+    }
+    
+    /**
+     * Check if a request was rejected by the server: sending it again would
+     * fail the same way. Authentication errors are not included.
+     */
+    private static boolean isRejected(int statusCode) {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 401 && statusCode != 403;
+    }
+}
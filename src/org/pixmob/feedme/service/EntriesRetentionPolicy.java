@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.SHARED_PREFERENCES;
+import static org.pixmob.feedme.Constants.SP_KEY_KEEP_STARRED_ENTRIES;
+import static org.pixmob.feedme.Constants.SP_KEY_MAX_ENTRIES_PER_FEED;
+import static org.pixmob.feedme.Constants.SP_KEY_MAX_ENTRY_AGE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import org.pixmob.feedme.provider.FeedmeContract;
+import org.pixmob.feedme.util.PreferenceUtils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Delete old read entries, and reclaim database space. Entries are deleted by
+ * the content provider in small batches, so that the database is never
+ * locked for a long time. Unread entries are never deleted.
+ * @author Pixmob
+ */
+class EntriesRetentionPolicy {
+    private final ContentResolver contentResolver;
+    private final SharedPreferences prefs;
+    
+    public EntriesRetentionPolicy(final Context context) {
+        contentResolver = context.getContentResolver();
+        prefs = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
+    }
+    
+    /**
+     * Apply the retention policy.
+     * @return the number of deleted entries
+     */
+    public int apply() {
+        final int maxAge = PreferenceUtils.getInt(prefs, SP_KEY_MAX_ENTRY_AGE, 30);
+        final int maxEntriesPerFeed = PreferenceUtils.getInt(prefs, SP_KEY_MAX_ENTRIES_PER_FEED,
+            500);
+        final long publishedBefore = maxAge > 0 ? System.currentTimeMillis() - maxAge
+                * DateUtils.DAY_IN_MILLIS : 0;
+        final Uri purgeUri = FeedmeContract.getPurgeUri(publishedBefore, maxEntriesPerFeed,
+            prefs.getBoolean(SP_KEY_KEEP_STARRED_ENTRIES, true));
+        
+        int count = 0;
+        for (int n; (n = contentResolver.delete(purgeUri, null, null)) != 0;) {
+            count += n;
+            if (DEVELOPER_MODE) {
+                Log.d(TAG, "Deleted " + count + " entrie(s) so far");
+            }
+        }
+        
+        if (count != 0) {
+            int pages = 0;
+            for (int n; (n = contentResolver.update(FeedmeContract.VACUUM_URI, null, null,
+                null)) != 0;) {
+                pages += n;
+            }
+            Log.i(TAG, "Deleted entries: " + count + " (" + pages + " page(s) reclaimed)");
+        }
+        
+        return count;
+    }
+}
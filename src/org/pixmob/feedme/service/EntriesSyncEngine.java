@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.SHARED_PREFERENCES;
+import static org.pixmob.feedme.Constants.SP_KEY_LAST_READING_LIST_SYNC;
+import static org.pixmob.feedme.Constants.SP_KEY_MAX_PAGES_PER_SYNC;
+import static org.pixmob.feedme.Constants.SP_KEY_SYNC_CHECKPOINT;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.pixmob.feedme.feature.Features;
+import org.pixmob.feedme.feature.SharedPreferencesSaverFeature;
+import org.pixmob.feedme.net.EntriesParser;
+import org.pixmob.feedme.net.NetworkClient;
+import org.pixmob.feedme.net.NetworkClientException;
+import org.pixmob.feedme.provider.FeedmeContract;
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.util.PreferenceUtils;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Synchronize unread entries with Google Reader. Local entry changes are sent
+ * first. Then pages of entries are downloaded until there is no more entries,
+ * or until the maximum number of pages for a synchronization is reached. A
+ * checkpoint is saved after each page is stored: an unfinished
+ * synchronization is resumed the next time, instead of being restarted.
+ * <p>
+ * Periodic synchronizations only download feeds due for polling, according
+ * to their publication rate, one feed at a time. The whole reading list is
+ * still downloaded twice a day, so that new feeds are found.
+ * </p>
+ * @author Pixmob
+ */
+class EntriesSyncEngine {
+    /**
+     * Maximum interval between two downloads of the reading list, for
+     * periodic synchronizations.
+     */
+    private static final long READING_LIST_INTERVAL = DateUtils.HALF_DAY_IN_MILLIS;
+    /**
+     * Maximum number of feeds downloaded by a periodic synchronization.
+     */
+    private static final int MAX_FEEDS_PER_SYNC = 20;
+    private final NetworkClient client;
+    private final ContentResolver contentResolver;
+    private final SharedPreferences prefs;
+    private final SharedPreferences.Editor prefsEditor;
+    
+    public EntriesSyncEngine(final Context context, final NetworkClient client) {
+        this.client = client;
+        contentResolver = context.getContentResolver();
+        prefs = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
+        prefsEditor = prefs.edit();
+    }
+    
+    /**
+     * Run the synchronization.
+     * @param scheduled <code>true</code> for a periodic synchronization, which
+     *            only downloads feeds due for polling, unless the reading list
+     *            is due as well
+     * @return the number of downloaded entries
+     */
+    public int sync(boolean scheduled) throws IOException {
+        // Local changes are sent before entries are downloaded, so that
+        // downloaded entries take them into account. If these changes cannot
+        // be sent, they are kept for the next synchronization.
+        try {
+            new EntriesOutboxSender(contentResolver, client).send();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to send entry changes", e);
+        }
+        
+        final FeedPollingPolicy pollingPolicy = new FeedPollingPolicy(contentResolver);
+        final EntriesBatchWriter writer = new EntriesBatchWriter(contentResolver, pollingPolicy);
+        if (!scheduled || isReadingListDue()) {
+            syncReadingList(writer);
+            pollingPolicy.apply(null);
+        } else {
+            final Map<String, Long> feeds = pollingPolicy.getDueFeeds(MAX_FEEDS_PER_SYNC);
+            syncFeeds(writer, feeds);
+            pollingPolicy.apply(feeds.keySet());
+        }
+        
+        return writer.getEntryCount();
+    }
+    
+    /**
+     * Check if the reading list should be downloaded. The reading list is
+     * the only way to find new feeds, and an unfinished synchronization must
+     * be resumed.
+     */
+    private boolean isReadingListDue() {
+        final long lastSync = prefs.getLong(SP_KEY_LAST_READING_LIST_SYNC, 0);
+        return prefs.getString(SP_KEY_SYNC_CHECKPOINT, null) != null
+                || System.currentTimeMillis() - lastSync >= READING_LIST_INTERVAL;
+    }
+    
+    /**
+     * Download the unread entries of feeds, published since their last known
+     * entry. A single page is downloaded for each feed: feeds are polled
+     * often enough to get every new entry.
+     * @param feeds publication times of the last known entry of each feed,
+     *            indexed by feed stream identifiers
+     */
+    private void syncFeeds(EntriesBatchWriter writer, Map<String, Long> feeds)
+            throws IOException {
+        final EntriesParser.Results results = new EntriesParser.Results();
+        results.handler = writer;
+        for (final Map.Entry<String, Long> feed : feeds.entrySet()) {
+            final String streamId = feed.getKey();
+            try {
+                client.downloadFeedEntries(streamId, feed.getValue(), results);
+            } catch (NetworkClientException e) {
+                if (e.getStatusCode() == 0) {
+                    throw e;
+                }
+                // The feed may have been removed: other feeds are still
+                // downloaded.
+                Log.w(TAG, "Failed to download feed: " + streamId, e);
+            }
+        }
+        
+        Log.i(TAG, "Feeds downloaded: " + feeds.size() + " (" + writer.getEntryCount()
+                + " entrie(s))");
+    }
+    
+    private void syncReadingList(EntriesBatchWriter writer) throws IOException {
+        final int maxPages = PreferenceUtils.getInt(prefs, SP_KEY_MAX_PAGES_PER_SYNC, 10);
+        
+        String continuation = prefs.getString(SP_KEY_SYNC_CHECKPOINT, null);
+        final boolean resumed = continuation != null;
+        if (resumed) {
+            Log.i(TAG, "Resume unfinished synchronization");
+        }
+        
+        final EntriesParser.Results results = new EntriesParser.Results();
+        results.handler = writer;
+        int pages = 0;
+        do {
+            results.continuation = null;
+            if (!client.downloadUnreadEntries(continuation, results)) {
+                Log.i(TAG, "No new entries since last synchronization");
+                saveReadingListSync();
+                return;
+            }
+            continuation = results.continuation;
+            pages++;
+            
+            // Entries from this page are stored: the next synchronization
+            // will not download this page again.
+            prefsEditor.putString(SP_KEY_SYNC_CHECKPOINT, continuation);
+            Features.getFeature(SharedPreferencesSaverFeature.class).save(prefsEditor);
+            
+            if (DEVELOPER_MODE) {
+                Log.d(TAG, "Page " + pages + " stored: " + writer.getEntryCount()
+                        + " entrie(s) downloaded so far");
+            }
+        } while (continuation != null && pages < maxPages);
+        
+        if (continuation != null) {
+            Log.i(TAG, "Synchronization stopped after " + pages + " page(s): "
+                    + "remaining entries will be downloaded next time");
+        } else if (!resumed && writer.getUnreadCount() == 0) {
+            // Every entry was downloaded, and there is no more unread entries:
+            // the user has read everything. The database can be updated to
+            // mark as read every entries.
+            final ContentValues cv = new ContentValues();
+            cv.put(Entries.STATUS, Entries.STATUS_READ);
+            contentResolver.update(FeedmeContract.asSyncCaller(Entries.CONTENT_URI), cv,
+                Entries.STATUS + "=?", new String[] { String.valueOf(Entries.STATUS_UNREAD) });
+        }
+        saveReadingListSync();
+    }
+    
+    private void saveReadingListSync() {
+        prefsEditor.putLong(SP_KEY_LAST_READING_LIST_SYNC, System.currentTimeMillis());
+        Features.getFeature(SharedPreferencesSaverFeature.class).save(prefsEditor);
+    }
+}
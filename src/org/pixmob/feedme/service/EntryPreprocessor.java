@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.util.HtmlUtils;
+
+import android.content.ContentValues;
+
+/**
+ * Prepare downloaded entries for display. Entry contents are processed once,
+ * before they are stored: the summary is sanitized, and a snippet, a word
+ * count and a lead image are extracted. The UI never parses HTML.
+ * @author Pixmob
+ */
+class EntryPreprocessor {
+    /**
+     * Process an entry, before it is stored.
+     */
+    public void process(ContentValues entry) {
+        final String summary = entry.getAsString(Entries.SUMMARY);
+        if (summary == null) {
+            return;
+        }
+        
+        final String text = HtmlUtils.toPlainText(summary);
+        entry.put(Entries.SUMMARY, HtmlUtils.sanitize(summary));
+        entry.put(Entries.SNIPPET, HtmlUtils.getSnippet(text, Entries.MAX_SNIPPET_LENGTH));
+        entry.put(Entries.WORD_COUNT, HtmlUtils.countWords(text));
+        
+        // The lead image of the entry is used as a thumbnail.
+        if (!entry.containsKey(Entries.IMAGE)) {
+            entry.put(Entries.IMAGE, HtmlUtils.findLeadImage(summary));
+        }
+    }
+}
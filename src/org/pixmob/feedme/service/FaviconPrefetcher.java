@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+
+import org.pixmob.feedme.image.ImageFetcher;
+import org.pixmob.feedme.provider.FeedmeContract.Feeds;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Download feed icons. An icon is downloaded once for each feed, and then
+ * refreshed every month: the last successful download time is stored in the
+ * feeds table. Icons which were evicted from the cache are downloaded again by
+ * the next synchronization, while icons which failed to download are only
+ * tried again once a day.
+ * @author Pixmob
+ */
+class FaviconPrefetcher {
+    private static final long REFRESH_INTERVAL = 30 * DateUtils.DAY_IN_MILLIS;
+    /**
+     * Delay before an icon which failed to download is tried again.
+     */
+    private static final long RETRY_INTERVAL = DateUtils.DAY_IN_MILLIS;
+    private static final String FEED_STREAM_PREFIX = "feed/";
+    private final Context context;
+    private final ContentResolver contentResolver;
+    
+    public FaviconPrefetcher(final Context context) {
+        this.context = context;
+        contentResolver = context.getContentResolver();
+    }
+    
+    /**
+     * Download missing or outdated feed icons.
+     * @return the number of downloaded icons
+     */
+    public int prefetch() {
+        final long now = System.currentTimeMillis();
+        final Cursor c = contentResolver.query(Feeds.CONTENT_URI, new String[] { Feeds._ID,
+                Feeds.STREAM_ID, Feeds.ICON_UPDATED, Feeds.ICON_ATTEMPTED }, null, null, null);
+        final long[] feedIds;
+        final String[] streamIds;
+        final long[] iconUpdated;
+        final long[] iconAttempted;
+        try {
+            feedIds = new long[c.getCount()];
+            streamIds = new String[feedIds.length];
+            iconUpdated = new long[feedIds.length];
+            iconAttempted = new long[feedIds.length];
+            for (int i = 0; c.moveToNext(); ++i) {
+                feedIds[i] = c.getLong(0);
+                streamIds[i] = c.getString(1);
+                iconUpdated[i] = c.getLong(2);
+                iconAttempted[i] = c.getLong(3);
+            }
+        } finally {
+            c.close();
+        }
+        if (feedIds.length == 0) {
+            return 0;
+        }
+        
+        final ImageFetcher fetcher = ImageFetcher.newFaviconFetcher(context);
+        final StringBuilder downloaded = new StringBuilder(feedIds.length * 8);
+        final StringBuilder failed = new StringBuilder(feedIds.length * 8);
+        int count = 0;
+        try {
+            for (int i = 0; i < feedIds.length; ++i) {
+                final String key = ImageFetcher.getFaviconKey(feedIds[i]);
+                if (now - iconUpdated[i] < REFRESH_INTERVAL && fetcher.isCached(key)) {
+                    continue;
+                }
+                if (now - iconAttempted[i] < RETRY_INTERVAL && iconAttempted[i] > iconUpdated[i]) {
+                    // The last download failed.
+                    continue;
+                }
+                final String url = getFaviconUrl(streamIds[i]);
+                if (url == null) {
+                    continue;
+                }
+                try {
+                    fetcher.download(key, url);
+                } catch (IOException e) {
+                    if (DEVELOPER_MODE) {
+                        Log.d(TAG, "Failed to download feed icon: " + url, e);
+                    }
+                    if (failed.length() != 0) {
+                        failed.append(',');
+                    }
+                    failed.append(feedIds[i]);
+                    continue;
+                }
+                if (count++ != 0) {
+                    downloaded.append(',');
+                }
+                downloaded.append(feedIds[i]);
+            }
+        } finally {
+            fetcher.close();
+        }
+        
+        // Feeds are updated at once: downloaded icons are stamped as updated,
+        // and failed icons as attempted.
+        if (count != 0) {
+            final ContentValues cv = new ContentValues(2);
+            cv.put(Feeds.ICON_UPDATED, now);
+            cv.put(Feeds.ICON_ATTEMPTED, now);
+            contentResolver.update(Feeds.CONTENT_URI, cv, Feeds._ID + " IN (" + downloaded
+                    + ")", null);
+        }
+        if (failed.length() != 0) {
+            final ContentValues cv = new ContentValues(1);
+            cv.put(Feeds.ICON_ATTEMPTED, now);
+            contentResolver.update(Feeds.CONTENT_URI, cv, Feeds._ID + " IN (" + failed + ")",
+                null);
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Get the icon URL of a feed, from the feed web site.
+     * @return <code>null</code> if this stream is not a feed
+     */
+    private static String getFaviconUrl(String streamId) {
+        if (!streamId.startsWith(FEED_STREAM_PREFIX)) {
+            return null;
+        }
+        final String host = Uri.parse(streamId.substring(FEED_STREAM_PREFIX.length())).getHost();
+        if (host == null) {
+            return null;
+        }
+        return "http://www.google.com/s2/favicons?domain=" + Uri.encode(host);
+    }
+}
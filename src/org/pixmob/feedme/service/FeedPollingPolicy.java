@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pixmob.feedme.provider.FeedmeContract;
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+import org.pixmob.feedme.provider.FeedmeContract.Feeds;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Decide when each feed is downloaded, from its publication rate. The
+ * publication times of downloaded entries are recorded during a
+ * synchronization, and the average interval between two entries of a feed is
+ * updated once the synchronization is done. A feed is polled twice per
+ * expected publication: feeds publishing every hour are downloaded more often
+ * than feeds publishing once a year.
+ * @author Pixmob
+ */
+class FeedPollingPolicy {
+    private static final long MIN_POLL_INTERVAL = DateUtils.HOUR_IN_MILLIS;
+    private static final long MAX_POLL_INTERVAL = DateUtils.DAY_IN_MILLIS;
+    /**
+     * Weight of a new publish interval, in the average interval of a feed.
+     */
+    private static final int NEW_INTERVAL_WEIGHT = 4;
+    private final ContentResolver contentResolver;
+    /**
+     * Publication times of downloaded entries, indexed by feed stream
+     * identifiers.
+     */
+    private final Map<String, List<Long>> publishedTimes = new HashMap<String, List<Long>>(16);
+    
+    public FeedPollingPolicy(final ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+    
+    /**
+     * Record a downloaded entry, before it is written.
+     */
+    public void record(ContentValues entry) {
+        final String streamId = entry.getAsString(Entries.SOURCE_ID);
+        final Long published = entry.getAsLong(Entries.PUBLISHED);
+        if (streamId == null || published == null) {
+            return;
+        }
+        List<Long> times = publishedTimes.get(streamId);
+        if (times == null) {
+            times = new ArrayList<Long>(8);
+            publishedTimes.put(streamId, times);
+        }
+        times.add(published);
+    }
+    
+    /**
+     * Get the feeds which should be downloaded now, from the most overdue
+     * one. Only feed streams are returned: other streams, such as feeds only
+     * known by their title, cannot be downloaded.
+     * @param maxFeeds maximum number of returned feeds
+     * @return publication times of the last known entry of each feed (in
+     *         milliseconds, or <code>0</code> if unknown), indexed by feed
+     *         stream identifiers
+     */
+    public Map<String, Long> getDueFeeds(int maxFeeds) {
+        final Cursor c = contentResolver.query(Feeds.CONTENT_URI, new String[] {
+                Feeds.STREAM_ID, Feeds.LAST_PUBLISHED }, Feeds.STREAM_ID + " LIKE 'feed/%' AND ("
+                + Feeds.NEXT_POLL + " IS NULL OR " + Feeds.NEXT_POLL + "<=?)",
+            new String[] { String.valueOf(System.currentTimeMillis()) }, Feeds.NEXT_POLL);
+        try {
+            final Map<String, Long> feeds = new LinkedHashMap<String, Long>(Math.min(
+                c.getCount(), maxFeeds));
+            while (feeds.size() < maxFeeds && c.moveToNext()) {
+                feeds.put(c.getString(0), c.getLong(1));
+            }
+            return feeds;
+        } finally {
+            c.close();
+        }
+    }
+    
+    /**
+     * Update feed publication rates from recorded entries, and schedule the
+     * next download of polled feeds. Feeds are updated with a single batch.
+     * @param polledStreamIds stream identifiers of polled feeds, or
+     *            <code>null</code> if every feed was downloaded with the
+     *            reading list
+     */
+    public void apply(Collection<String> polledStreamIds) {
+        final long now = System.currentTimeMillis();
+        final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        final Cursor c = contentResolver.query(Feeds.CONTENT_URI, new String[] { Feeds._ID,
+                Feeds.STREAM_ID, Feeds.LAST_PUBLISHED, Feeds.PUBLISH_INTERVAL }, null, null,
+            null);
+        try {
+            while (c.moveToNext()) {
+                final String streamId = c.getString(1);
+                final boolean polled = polledStreamIds == null
+                        || polledStreamIds.contains(streamId);
+                final List<Long> times = publishedTimes.get(streamId);
+                if (!polled && times == null) {
+                    continue;
+                }
+                
+                Long lastPublished = c.isNull(2) ? null : c.getLong(2);
+                Long publishInterval = c.isNull(3) ? null : c.getLong(3);
+                final ContentValues cv = new ContentValues(3);
+                if (times != null) {
+                    final long newest = getNewest(times);
+                    if (lastPublished == null || newest > lastPublished) {
+                        final Long interval = getPublishInterval(times, lastPublished);
+                        if (interval != null) {
+                            publishInterval = publishInterval == null ? interval
+                                    : publishInterval + (interval - publishInterval)
+                                            / NEW_INTERVAL_WEIGHT;
+                            cv.put(Feeds.PUBLISH_INTERVAL, publishInterval);
+                        }
+                        lastPublished = newest;
+                        cv.put(Feeds.LAST_PUBLISHED, lastPublished);
+                    }
+                }
+                if (polled) {
+                    cv.put(Feeds.NEXT_POLL, now
+                            + getPollInterval(publishInterval, lastPublished, now));
+                }
+                if (cv.size() != 0) {
+                    ops.add(ContentProviderOperation
+                            .newUpdate(Uri.withAppendedPath(Feeds.CONTENT_URI, c.getString(0)))
+                            .withValues(cv).build());
+                }
+            }
+        } finally {
+            c.close();
+        }
+        
+        if (ops.isEmpty()) {
+            return;
+        }
+        try {
+            contentResolver.applyBatch(FeedmeContract.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to update feed polling times", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Failed to update feed polling times", e);
+        }
+        if (DEVELOPER_MODE) {
+            Log.d(TAG, "Feed polling times updated: " + ops.size());
+        }
+    }
+    
+    private static long getNewest(List<Long> times) {
+        long newest = Long.MIN_VALUE;
+        for (final Long time : times) {
+            newest = Math.max(newest, time);
+        }
+        return newest;
+    }
+    
+    /**
+     * Get the average interval between recorded entries newer than the last
+     * known entry. If the last entry is unknown, the oldest recorded entry is
+     * used instead.
+     * @return <code>null</code> if there is not enough entries
+     */
+    private static Long getPublishInterval(List<Long> times, Long lastPublished) {
+        long newest = Long.MIN_VALUE;
+        long oldest = Long.MAX_VALUE;
+        int count = 0;
+        for (final Long time : times) {
+            if (lastPublished == null || time > lastPublished) {
+                newest = Math.max(newest, time);
+                oldest = Math.min(oldest, time);
+                count++;
+            }
+        }
+        if (lastPublished != null && count != 0) {
+            return (newest - lastPublished) / count;
+        }
+        if (count > 1) {
+            return (newest - oldest) / (count - 1);
+        }
+        return null;
+    }
+    
+    /**
+     * Get the interval until the next download of a feed. A feed which
+     * stopped publishing is downloaded less often, as if it published at the
+     * rate of its current silence.
+     */
+    private static long getPollInterval(Long publishInterval, Long lastPublished, long now) {
+        long interval = publishInterval == null ? MIN_POLL_INTERVAL : publishInterval;
+        if (lastPublished != null) {
+            interval = Math.max(interval, now - lastPublished);
+        }
+        return Math.max(MIN_POLL_INTERVAL, Math.min(MAX_POLL_INTERVAL, interval / 2));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.SHARED_PREFERENCES;
+import static org.pixmob.feedme.Constants.SP_KEY_SYNC_CHARGING_ONLY;
+import static org.pixmob.feedme.Constants.SP_KEY_SYNC_INTERVAL;
+import static org.pixmob.feedme.Constants.SP_KEY_SYNC_UNMETERED_ONLY;
+import static org.pixmob.feedme.Constants.TAG;
+
+import org.pixmob.feedme.util.NetworkUtils;
+import org.pixmob.feedme.util.PowerUtils;
+import org.pixmob.feedme.util.PreferenceUtils;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Schedule periodic synchronizations. Synchronizations are run with an
+ * inexact repeating alarm, which the system aligns with other alarms: the
+ * device is not woken up for every application. A synchronization is
+ * deferred while the device is offline, or while optional conditions are not
+ * met (charging, unmetered network): it is run as soon as conditions change.
+ * <p>
+ * An alarm only keeps the device awake while its receiver runs: a partial
+ * wake lock is acquired before the synchronization service is started, and
+ * it is released by the service once the synchronization is done.
+ * </p>
+ * @author Pixmob
+ */
+public final class SyncScheduler {
+    /**
+     * Action of the periodic alarm.
+     */
+    static final String ACTION_SYNC = "org.pixmob.feedme.action.SYNC";
+    /**
+     * Intervals which are aligned with other alarms by {@link AlarmManager}.
+     */
+    private static final long[] ALIGNED_INTERVALS = { AlarmManager.INTERVAL_FIFTEEN_MINUTES,
+            AlarmManager.INTERVAL_HALF_HOUR, AlarmManager.INTERVAL_HOUR,
+            AlarmManager.INTERVAL_HALF_DAY, AlarmManager.INTERVAL_DAY };
+    private static PowerManager.WakeLock wakeLock;
+    
+    private SyncScheduler() {
+    }
+    
+    /**
+     * Schedule periodic synchronizations, replacing the current schedule. This
+     * method must be called when synchronization preferences are changed.
+     */
+    public static void schedule(Context context) {
+        final AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        final PendingIntent syncIntent = PendingIntent.getBroadcast(context, 0,
+            createSyncIntent(context), 0);
+        final long interval = getSyncInterval(context);
+        if (interval == 0) {
+            am.cancel(syncIntent);
+            syncIntent.cancel();
+            setDeferredSyncEnabled(context, false);
+            Log.i(TAG, "Periodic synchronizations disabled");
+            return;
+        }
+        
+        am.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock
+                .elapsedRealtime() + interval, interval, syncIntent);
+        Log.i(TAG, "Periodic synchronizations scheduled every "
+                + interval / DateUtils.MINUTE_IN_MILLIS + " minute(s)");
+    }
+    
+    /**
+     * Schedule periodic synchronizations, unless they are already scheduled.
+     */
+    public static void ensureScheduled(Context context) {
+        if (PendingIntent.getBroadcast(context, 0, createSyncIntent(context),
+            PendingIntent.FLAG_NO_CREATE) == null) {
+            schedule(context);
+        }
+    }
+    
+    /**
+     * Start a periodic synchronization if conditions are met, or defer it
+     * until they change.
+     */
+    static void requestSync(Context context) {
+        if (canSync(context)) {
+            setDeferredSyncEnabled(context, false);
+            acquireWakeLock(context);
+            if (context.startService(new Intent(context, EntriesDownloadService.class)
+                    .putExtra(EntriesDownloadService.EXTRA_SCHEDULED, true)
+                    .putExtra(EntriesDownloadService.EXTRA_WAKE_LOCK, true)) == null) {
+                releaseWakeLock();
+            }
+        } else {
+            Log.i(TAG, "Periodic synchronization deferred");
+            setDeferredSyncEnabled(context, true);
+        }
+    }
+    
+    /**
+     * Release the wake lock acquired for a periodic synchronization. This
+     * method must be called once for each synchronization started with
+     * {@link EntriesDownloadService#EXTRA_WAKE_LOCK}.
+     */
+    static synchronized void releaseWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+    
+    private static synchronized void acquireWakeLock(Context context) {
+        if (wakeLock == null) {
+            final PowerManager pm = (PowerManager) context.getApplicationContext()
+                    .getSystemService(Context.POWER_SERVICE);
+            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Feedme/Sync");
+        }
+        wakeLock.acquire();
+    }
+    
+    /**
+     * Check if conditions for a periodic synchronization are met.
+     */
+    static boolean canSync(Context context) {
+        if (!NetworkUtils.isConnected(context)) {
+            return false;
+        }
+        final SharedPreferences prefs = context.getSharedPreferences(SHARED_PREFERENCES,
+            Context.MODE_PRIVATE);
+        if (prefs.getBoolean(SP_KEY_SYNC_UNMETERED_ONLY, false)
+                && !NetworkUtils.isUnmeteredNetwork(context)) {
+            return false;
+        }
+        if (prefs.getBoolean(SP_KEY_SYNC_CHARGING_ONLY, false)
+                && !PowerUtils.isCharging(context)) {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Get the interval between synchronizations, in milliseconds. The
+     * interval is rounded up to an aligned interval.
+     * @return <code>0</code> if periodic synchronizations are disabled
+     */
+    private static long getSyncInterval(Context context) {
+        final int minutes = PreferenceUtils.getInt(context.getSharedPreferences(
+            SHARED_PREFERENCES, Context.MODE_PRIVATE), SP_KEY_SYNC_INTERVAL, 60);
+        if (minutes <= 0) {
+            return 0;
+        }
+        final long interval = minutes * DateUtils.MINUTE_IN_MILLIS;
+        for (final long alignedInterval : ALIGNED_INTERVALS) {
+            if (interval <= alignedInterval) {
+                return alignedInterval;
+            }
+        }
+        return interval;
+    }
+    
+    private static Intent createSyncIntent(Context context) {
+        return new Intent(ACTION_SYNC, null, context, SyncAlarmReceiver.class);
+    }
+    
+    /**
+     * Enable or disable the receiver for deferred synchronizations. This
+     * receiver is disabled most of the time: the application is not started
+     * for every connectivity change.
+     */
+    private static void setDeferredSyncEnabled(Context context, boolean enabled) {
+        context.getPackageManager().setComponentEnabledSetting(
+            new ComponentName(context, DeferredSyncReceiver.class),
+            enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                    : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+            PackageManager.DONT_KILL_APP);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.service;
+
+import static org.pixmob.feedme.Constants.DEVELOPER_MODE;
+import static org.pixmob.feedme.Constants.TAG;
+
+import java.io.IOException;
+
+import org.pixmob.feedme.image.ImageFetcher;
+import org.pixmob.feedme.provider.FeedmeContract.Entries;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Download thumbnails for the most recent unread entries, so that the entries
+ * list does not wait for the network. Thumbnails already in cache are not
+ * downloaded again.
+ * @author Pixmob
+ */
+class ThumbnailPrefetcher {
+    private static final int MAX_THUMBNAILS = 100;
+    private final Context context;
+    
+    public ThumbnailPrefetcher(final Context context) {
+        this.context = context;
+    }
+    
+    /**
+     * Download missing thumbnails.
+     * @return the number of downloaded thumbnails
+     */
+    public int prefetch() {
+        final Cursor c = context.getContentResolver().query(
+            Entries.getPageUri(MAX_THUMBNAILS), new String[] { Entries.IMAGE },
+            Entries.STATUS + "=? AND " + Entries.IMAGE + " NOT NULL",
+            new String[] { String.valueOf(Entries.STATUS_UNREAD) }, null);
+        final String[] urls;
+        try {
+            urls = new String[c.getCount()];
+            for (int i = 0; c.moveToNext(); ++i) {
+                urls[i] = c.getString(0);
+            }
+        } finally {
+            c.close();
+        }
+        
+        final ImageFetcher fetcher = ImageFetcher.newThumbnailFetcher(context);
+        int count = 0;
+        try {
+            for (final String url : urls) {
+                if (fetcher.isCached(url)) {
+                    continue;
+                }
+                try {
+                    fetcher.get(url, url, true);
+                    count++;
+                } catch (IOException e) {
+                    if (DEVELOPER_MODE) {
+                        Log.d(TAG, "Failed to download thumbnail: " + url, e);
+                    }
+                }
+            }
+        } finally {
+            fetcher.close();
+        }
+        return count;
+    }
+}
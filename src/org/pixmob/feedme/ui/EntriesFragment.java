@@ -24,10 +24,14 @@ import static org.pixmob.feedme.Constants.TAG;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.pixmob.feedme.R;
 import org.pixmob.feedme.feature.Features;
 import org.pixmob.feedme.feature.SharedPreferencesSaverFeature;
+import org.pixmob.feedme.image.FaviconLoader;
+import org.pixmob.feedme.image.ThumbnailLoader;
 import org.pixmob.feedme.provider.FeedmeContract.Entries;
 import org.pixmob.feedme.service.EntriesDownloadService;
 
@@ -42,6 +46,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
@@ -55,20 +60,36 @@ import android.util.Log;
 import android.view.MenuInflater;
 import android.view.View;
 import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 import android.widget.Toast;
 
 /**
- * Display a list of RSS entries.
+ * Display a list of RSS entries. Entries are loaded one page at a time, when
+ * the list is scrolled: each page is loaded with its own {@link Loader}.
  * @author Pixmob
  */
 public class EntriesFragment extends ListFragment implements
         SelectAccountDialog.OnAccountSelectedListener, LoaderCallbacks<Cursor> {
     private static final String[] ENTRIES_COLUMNS = { Entries._ID, Entries.SOURCE,
-            Entries.PUBLISHED, Entries.TITLE, Entries.SUMMARY, Entries.URL, Entries.IMAGE };
+            Entries.FEED_ID, Entries.PUBLISHED, Entries.TITLE, Entries.URL, Entries.IMAGE,
+            Entries.SNIPPET };
     private static final String ENTRIES_SELECTION = Entries.STATUS + "=?";
     private static final String[] ENTRIES_SELECTION_ARGS = { String.valueOf(Entries.STATUS_UNREAD) };
+    private static final int PAGE_SIZE = 50;
+    /**
+     * Cursors for every loaded page, indexed by loader identifiers. A
+     * <code>null</code> element is a page being loaded.
+     */
+    private final List<Cursor> pages = new ArrayList<Cursor>(4);
+    /**
+     * Arguments for every page loader: the key of the last entry of the
+     * previous page.
+     */
+    private final List<Bundle> pageArgs = new ArrayList<Bundle>(4);
     private CursorAdapter cursorAdapter;
+    private ThumbnailLoader thumbnailLoader;
+    private FaviconLoader faviconLoader;
     private SharedPreferences prefs;
     private SharedPreferences.Editor prefsEditor;
     private Intent refreshEntriesIntent;
@@ -89,17 +110,42 @@ public class EntriesFragment extends ListFragment implements
         
         refreshEntriesIntent = new Intent(getActivity(), EntriesDownloadService.class);
         
-        cursorAdapter = new EntryCursorAdapter(getActivity());
+        thumbnailLoader = new ThumbnailLoader(getActivity());
+        faviconLoader = new FaviconLoader(getActivity());
+        cursorAdapter = new EntryCursorAdapter(getActivity(), thumbnailLoader, faviconLoader);
         setListAdapter(cursorAdapter);
         
         // One selected event at a time.
         getListView().setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
         
+        // Load the next page before the end of the list is reached.
+        getListView().setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+            
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+        
         // The list is hidden until event cursor is loaded.
         setListShown(false);
         setEmptyText(getString(R.string.no_entry_found));
         
-        // Start entries loading.
+        // Start entries loading. Loaders for next pages may be left by a
+        // previous instance: they are not used anymore.
+        for (int i = 1; getLoaderManager().getLoader(i) != null; ++i) {
+            getLoaderManager().destroyLoader(i);
+        }
+        pages.clear();
+        pageArgs.clear();
+        pages.add(null);
+        pageArgs.add(null);
         getLoaderManager().initLoader(0, null, this);
         
         if (savedInstanceState != null) {
@@ -122,6 +168,15 @@ public class EntriesFragment extends ListFragment implements
         }
     }
     
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        
+        // Pending image requests are canceled.
+        thumbnailLoader.close();
+        faviconLoader.close();
+    }
+    
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -144,15 +199,51 @@ public class EntriesFragment extends ListFragment implements
     
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        final CursorLoader loader = new CursorLoader(getActivity(), Entries.CONTENT_URI,
-                ENTRIES_COLUMNS, ENTRIES_SELECTION, ENTRIES_SELECTION_ARGS, null);
+        final Uri pageUri = args == null ? Entries.getPageUri(PAGE_SIZE) : Entries.getPageUri(
+            PAGE_SIZE, args.getLong(Entries.PUBLISHED), args.getLong(Entries._ID));
+        final CursorLoader loader = new CursorLoader(getActivity(), pageUri, ENTRIES_COLUMNS,
+                ENTRIES_SELECTION, ENTRIES_SELECTION_ARGS, null);
         loader.setUpdateThrottle(250);
         return loader;
     }
     
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        cursorAdapter.swapCursor(data);
+        final int page = loader.getId();
+        if (page >= pages.size()) {
+            // This page was dropped.
+            return;
+        }
+        pages.set(page, data);
+        if (page == 0) {
+            // Feed icons may have been downloaded since entries were loaded.
+            faviconLoader.clearMissing();
+        }
+        
+        // The next page starts after the last entry of this page: if this
+        // entry changed, the next page is reloaded, which may reload the
+        // following pages.
+        final int nextPage = page + 1;
+        if (nextPage < pages.size()) {
+            if (data.getCount() < PAGE_SIZE) {
+                // There is no more entries after this page.
+                for (int i = pages.size() - 1; i >= nextPage; --i) {
+                    getLoaderManager().destroyLoader(i);
+                    pages.remove(i);
+                    pageArgs.remove(i);
+                }
+            } else {
+                final Bundle args = getNextPageArgs(data);
+                final Bundle nextPageArgs = pageArgs.get(nextPage);
+                if (args.getLong(Entries.PUBLISHED) != nextPageArgs.getLong(Entries.PUBLISHED)
+                        || args.getLong(Entries._ID) != nextPageArgs.getLong(Entries._ID)) {
+                    pageArgs.set(nextPage, args);
+                    getLoaderManager().restartLoader(nextPage, args, this);
+                }
+            }
+        }
+        
+        updateCursor();
         
         if (isResumed()) {
             // Entries are available: the list is shown.
@@ -164,7 +255,57 @@ public class EntriesFragment extends ListFragment implements
     
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        cursorAdapter.swapCursor(null);
+        final int page = loader.getId();
+        if (page < pages.size()) {
+            pages.set(page, null);
+            updateCursor();
+        }
+    }
+    
+    /**
+     * Start loading the page following the last loaded page, unless a page is
+     * being loaded or every entry is loaded.
+     */
+    private void loadNextPage() {
+        if (pages.isEmpty()) {
+            return;
+        }
+        final Cursor lastPage = pages.get(pages.size() - 1);
+        if (lastPage == null || lastPage.getCount() < PAGE_SIZE) {
+            return;
+        }
+        
+        final Bundle args = getNextPageArgs(lastPage);
+        pages.add(null);
+        pageArgs.add(args);
+        getLoaderManager().restartLoader(pages.size() - 1, args, this);
+    }
+    
+    /**
+     * Get loader arguments for the page following a page: the key of the
+     * last entry of this page.
+     */
+    private static Bundle getNextPageArgs(Cursor page) {
+        page.moveToLast();
+        final Bundle args = new Bundle(2);
+        final int publishedIndex = page.getColumnIndexOrThrow(Entries.PUBLISHED);
+        args.putLong(Entries.PUBLISHED, page.getLong(publishedIndex));
+        args.putLong(Entries._ID, page.getLong(page.getColumnIndexOrThrow(Entries._ID)));
+        return args;
+    }
+    
+    /**
+     * Display loaded pages, as a single cursor.
+     */
+    private void updateCursor() {
+        final Cursor cursor;
+        if (pages.size() == 1) {
+            cursor = pages.get(0);
+        } else {
+            // Pages being loaded are skipped by this cursor.
+            cursor = new MergeCursor(pages.toArray(new Cursor[pages.size()]));
+        }
+        cursorAdapter.swapCursor(cursor);
     }
     
     @Override
@@ -264,8 +405,7 @@ public class EntriesFragment extends ListFragment implements
         super.onListItemClick(l, v, position, id);
         getListView().setItemChecked(position, true);
         
-        final Integer entryId = (Integer) v.getTag(EntryCursorAdapter.ID_TAG);
-        final Uri entryUri = Uri.withAppendedPath(Entries.CONTENT_URI, String.valueOf(entryId));
+        final Uri entryUri = Uri.withAppendedPath(Entries.CONTENT_URI, String.valueOf(id));
         selectedEntryUri = entryUri;
         
         final OnEntrySelectionListener listener = listenerRef != null ? listenerRef.get() : null;
@@ -16,51 +16,112 @@
 package org.pixmob.feedme.ui;
 
 import org.pixmob.feedme.R;
+import org.pixmob.feedme.image.FaviconLoader;
+import org.pixmob.feedme.image.ThumbnailLoader;
 import org.pixmob.feedme.provider.FeedmeContract.Entries;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.support.v4.widget.CursorAdapter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 /**
- * {@link CursorAdapter} implementation for displaying a feed entry.
+ * {@link CursorAdapter} implementation for displaying a feed entry. Column
+ * indices are resolved once for each cursor, and row views are kept in a
+ * {@link ViewHolder}. Text columns are copied into buffers owned by the row:
+ * with a SQLite cursor, no string is created for them. Other cursors, such as
+ * the {@link android.database.MergeCursor} holding several pages of
+ * entries, may still create a string for each copied value. Entry thumbnails
+ * and feed icons are loaded asynchronously: the image URL is read as a
+ * string, since it is the key of the thumbnail request.
  * @author Pixmob
  */
 class EntryCursorAdapter extends CursorAdapter {
-    public static final int ID_TAG = R.id.entry_title;
-    public static final int IMAGE_TAG = R.id.entry_image;
-    public static final int URL_TAG = R.id.entry_feed_icon;
+    private int titleIndex = -1;
+    private int sourceIndex = -1;
+    private int snippetIndex = -1;
+    private int imageIndex = -1;
+    private int feedIdIndex = -1;
+    private final ThumbnailLoader thumbnailLoader;
+    private final FaviconLoader faviconLoader;
     
-    public EntryCursorAdapter(final Context context) {
+    public EntryCursorAdapter(final Context context, final ThumbnailLoader thumbnailLoader,
+            final FaviconLoader faviconLoader) {
         super(context, null, 0);
+        this.thumbnailLoader = thumbnailLoader;
+        this.faviconLoader = faviconLoader;
+    }
+    
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor != null) {
+            titleIndex = newCursor.getColumnIndexOrThrow(Entries.TITLE);
+            sourceIndex = newCursor.getColumnIndexOrThrow(Entries.SOURCE);
+            snippetIndex = newCursor.getColumnIndexOrThrow(Entries.SNIPPET);
+            imageIndex = newCursor.getColumnIndexOrThrow(Entries.IMAGE);
+            feedIdIndex = newCursor.getColumnIndexOrThrow(Entries.FEED_ID);
+        }
+        return super.swapCursor(newCursor);
     }
     
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        final int entryId = cursor.getInt(cursor.getColumnIndex(Entries._ID));
-        final String entryTitle = cursor.getString(cursor.getColumnIndex(Entries.TITLE));
-        final String entrySource = cursor.getString(cursor.getColumnIndex(Entries.SOURCE));
-        final String entryUrl = cursor.getString(cursor.getColumnIndexOrThrow(Entries.URL));
-        final String imagePath = cursor.getString(cursor.getColumnIndex(Entries.IMAGE));
+        final ViewHolder holder = (ViewHolder) view.getTag();
         
-        TextView tv = (TextView) view.findViewById(R.id.entry_title);
-        tv.setText(entryTitle);
+        // Column values are copied into buffers owned by the row, instead of
+        // being returned as new strings when the cursor supports it.
+        setText(holder.title, holder.titleBuffer, cursor, titleIndex);
+        setText(holder.source, holder.sourceBuffer, cursor, sourceIndex);
+        setText(holder.snippet, holder.snippetBuffer, cursor, snippetIndex);
+        holder.snippet.setVisibility(holder.snippetBuffer.sizeCopied == 0 ? View.GONE
+                : View.VISIBLE);
         
-        tv = (TextView) view.findViewById(R.id.entry_source);
-        tv.setText(entrySource);
-        
-        view.setTag(ID_TAG, entryId);
-        view.setTag(URL_TAG, entryUrl);
-        view.setTag(IMAGE_TAG, imagePath);
+        // The previous thumbnail request for this row is canceled.
+        thumbnailLoader.bind(holder.image, cursor.getString(imageIndex));
+        faviconLoader.bind(holder.feedIcon, cursor.getLong(feedIdIndex));
     }
     
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
         final LayoutInflater inflater = LayoutInflater.from(context);
-        return inflater.inflate(R.layout.entry_row, parent, false);
+        final View view = inflater.inflate(R.layout.entry_row, parent, false);
+        
+        final ViewHolder holder = new ViewHolder();
+        holder.title = (TextView) view.findViewById(R.id.entry_title);
+        holder.source = (TextView) view.findViewById(R.id.entry_source);
+        holder.snippet = (TextView) view.findViewById(R.id.entry_snippet);
+        holder.image = (ImageView) view.findViewById(R.id.entry_image);
+        holder.feedIcon = (ImageView) view.findViewById(R.id.entry_feed_icon);
+        view.setTag(holder);
+        
+        return view;
+    }
+    
+    private static void setText(TextView view, CharArrayBuffer buffer, Cursor cursor,
+            int columnIndex) {
+        cursor.copyStringToBuffer(columnIndex, buffer);
+        view.setText(buffer.data, 0, buffer.sizeCopied);
+    }
+    
+    /**
+     * Views for an entry row, which are looked up once when the row is
+     * created.
+     * @author Pixmob
+     */
+    private static class ViewHolder {
+        public final CharArrayBuffer titleBuffer = new CharArrayBuffer(128);
+        public final CharArrayBuffer sourceBuffer = new CharArrayBuffer(64);
+        public final CharArrayBuffer snippetBuffer = new CharArrayBuffer(
+                Entries.MAX_SNIPPET_LENGTH + 1);
+        public TextView title;
+        public TextView source;
+        public TextView snippet;
+        public ImageView image;
+        public ImageView feedIcon;
     }
 }
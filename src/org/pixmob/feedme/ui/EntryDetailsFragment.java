@@ -36,13 +36,17 @@ import android.webkit.WebView;
 import android.widget.TextView;
 
 /**
- * Display entry details, with a web view.
+ * Display entry details, with a web view. The entry is rendered from the
+ * database, using the downloaded article or the entry summary: it is displayed
+ * at once, even when the device is offline. The original page is only loaded
+ * if there is no stored content, or if the user asks for it.
  * @author Pixmob
  */
 public class EntryDetailsFragment extends Fragment implements LoaderCallbacks<Cursor> {
     private TextView entryDetailsTitle;
     private WebView browser;
     private boolean entryDisplayed;
+    private String entryUrl;
     
     public static EntryDetailsFragment newInstance(Uri entryUri) {
         final EntryDetailsFragment f = new EntryDetailsFragment();
@@ -63,12 +67,16 @@ public class EntryDetailsFragment extends Fragment implements LoaderCallbacks<Cu
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
-        menu.add(Menu.NONE, R.string.show_in_browser, 1, R.string.show_in_browser);
+        menu.add(Menu.NONE, R.string.show_original_page, 1, R.string.show_original_page);
+        menu.add(Menu.NONE, R.string.show_in_browser, 2, R.string.show_in_browser);
     }
     
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case R.string.show_original_page:
+                onShowOriginalPage();
+                break;
             case R.string.show_in_browser:
                 onShowInBrowser();
                 break;
@@ -76,9 +84,15 @@ public class EntryDetailsFragment extends Fragment implements LoaderCallbacks<Cu
         return super.onOptionsItemSelected(item);
     }
     
+    private void onShowOriginalPage() {
+        if (entryDisplayed && entryUrl != null) {
+            browser.loadUrl(entryUrl);
+        }
+    }
+    
     private void onShowInBrowser() {
-        if (entryDisplayed) {
-            final Intent i = new Intent(Intent.ACTION_VIEW).setData(Uri.parse(browser.getUrl()));
+        if (entryDisplayed && entryUrl != null) {
+            final Intent i = new Intent(Intent.ACTION_VIEW).setData(Uri.parse(entryUrl));
             startActivity(i);
         }
     }
@@ -108,15 +122,25 @@ public class EntryDetailsFragment extends Fragment implements LoaderCallbacks<Cu
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         final Uri entryUri = Uri.parse(args.getString("entryUri"));
         return new CursorLoader(getActivity(), entryUri,
-                new String[] { Entries.TITLE, Entries.URL }, null, null, null);
+                new String[] { Entries.TITLE, Entries.URL, Entries.SUMMARY, Entries.ARTICLE },
+                null, null, null);
     }
     
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (data.moveToNext()) {
-            final String entryUrl = data.getString(data.getColumnIndex(Entries.URL));
+            entryUrl = data.getString(data.getColumnIndex(Entries.URL));
             final String entryTitle = data.getString(data.getColumnIndexOrThrow(Entries.TITLE));
-            browser.loadUrl(entryUrl);
+            String content = data.getString(data.getColumnIndexOrThrow(Entries.ARTICLE));
+            if (content == null) {
+                content = data.getString(data.getColumnIndexOrThrow(Entries.SUMMARY));
+            }
+            if (content != null) {
+                // Relative links are resolved against the entry URL.
+                browser.loadDataWithBaseURL(entryUrl, content, "text/html", "UTF-8", null);
+            } else if (entryUrl != null) {
+                browser.loadUrl(entryUrl);
+            }
             entryDetailsTitle.setText(entryTitle);
             entryDisplayed = true;
             
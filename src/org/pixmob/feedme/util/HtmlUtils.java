@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.util;
+
+/**
+ * HTML utilities. Entry summaries are processed for every downloaded entry:
+ * these methods scan HTML in a single pass, without building a document
+ * tree.
+ * @author Pixmob
+ */
+public final class HtmlUtils {
+    /**
+     * Maximum length of an entity name, such as <code>#x00e9</code>.
+     */
+    private static final int MAX_ENTITY_LENGTH = 8;
+    /**
+     * Elements removed with their content by {@link #sanitize(String)}.
+     */
+    private static final String[] UNSAFE_ELEMENTS = { "script", "style", "iframe", "object",
+            "applet" };
+    /**
+     * Tags removed by {@link #sanitize(String)}: the content of these elements
+     * is kept.
+     */
+    private static final String[] UNSAFE_TAGS = { "embed", "form", "input", "button", "frame",
+            "frameset", "meta", "link", "base" };
+    /**
+     * Attributes whose value is a URL, which are checked by
+     * {@link #sanitize(String)}.
+     */
+    private static final String[] URL_ATTRIBUTES = { "href", "src", "action", "formaction",
+            "background", "poster", "cite", "longdesc", "lowsrc", "dynsrc", "xlink:href" };
+    /**
+     * URL schemes allowed by {@link #sanitize(String)}. Relative URLs are
+     * allowed as well.
+     */
+    private static final String[] SAFE_URL_SCHEMES = { "http", "https", "mailto" };
+    
+    private HtmlUtils() {
+    }
+    
+    /**
+     * Get plain text from HTML. Tags are removed, as well as the content of
+     * <code>script</code> and <code>style</code> elements. Common entities
+     * are decoded, and whitespaces are collapsed.
+     */
+    public static String toPlainText(String html) {
+        final int len = html.length();
+        final StringBuilder buf = new StringBuilder(len);
+        // Whitespaces are only written before the next word.
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < len) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                final int end = html.indexOf('>', i + 1);
+                if (end == -1) {
+                    break;
+                }
+                if (startsWithTag(html, i + 1, "script")) {
+                    i = skipElement(html, end + 1, "</script");
+                } else if (startsWithTag(html, i + 1, "style")) {
+                    i = skipElement(html, end + 1, "</style");
+                } else {
+                    i = end + 1;
+                }
+                // A tag separates words.
+                pendingSpace = buf.length() != 0;
+                continue;
+            }
+            
+            int next = i + 1;
+            if (c == '&') {
+                final int end = html.indexOf(';', next);
+                if (end != -1 && end - next <= MAX_ENTITY_LENGTH) {
+                    final int decoded = decodeEntity(html, next, end);
+                    if (decoded != -1) {
+                        c = (char) decoded;
+                        next = end + 1;
+                    }
+                }
+            }
+            if (Character.isWhitespace(c) || c == '\u00a0') {
+                pendingSpace = buf.length() != 0;
+            } else {
+                if (pendingSpace) {
+                    buf.append(' ');
+                    pendingSpace = false;
+                }
+                buf.append(c);
+            }
+            i = next;
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Sanitize HTML for rendering. Scripts, styles, embedded objects and
+     * frames are removed, as well as event handler attributes and URLs with
+     * a scheme other than <code>http</code>, <code>https</code> and
+     * <code>mailto</code>. Other tags are rewritten with quoted attributes.
+     */
+    public static String sanitize(String html) {
+        final int len = html.length();
+        final StringBuilder buf = new StringBuilder(len);
+        int i = 0;
+        while (i < len) {
+            final int start = html.indexOf('<', i);
+            if (start == -1) {
+                buf.append(html, i, len);
+                break;
+            }
+            buf.append(html, i, start);
+            
+            if (html.startsWith("<!--", start)) {
+                final int end = html.indexOf("-->", start + 4);
+                i = end == -1 ? len : end + 3;
+                continue;
+            }
+            final int end = findTagEnd(html, start + 1);
+            if (end == -1) {
+                break;
+            }
+            i = end + 1;
+            
+            final boolean closing = start + 1 < end && html.charAt(start + 1) == '/';
+            final int nameStart = closing ? start + 2 : start + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < end && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                ++nameEnd;
+            }
+            if (nameEnd == nameStart) {
+                // Not a tag: the bracket is escaped.
+                buf.append("&lt;");
+                i = start + 1;
+                continue;
+            }
+            final String name = html.substring(nameStart, nameEnd).toLowerCase();
+            if (contains(UNSAFE_ELEMENTS, name)) {
+                if (!closing) {
+                    i = skipElement(html, i, "</" + name);
+                }
+                continue;
+            }
+            if (contains(UNSAFE_TAGS, name)) {
+                continue;
+            }
+            
+            buf.append('<');
+            if (closing) {
+                buf.append('/');
+            }
+            buf.append(name);
+            if (!closing) {
+                final boolean empty = html.charAt(end - 1) == '/';
+                appendSafeAttributes(buf, html.substring(nameEnd, empty ? end - 1 : end));
+                if (empty) {
+                    buf.append(" /");
+                }
+            }
+            buf.append('>');
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Get a short snippet from plain text, cut on a word boundary.
+     * @param text plain text, as returned by {@link #toPlainText(String)}
+     * @param maxLength maximum snippet length
+     */
+    public static String getSnippet(String text, int maxLength) {
+        if (text.length() <= maxLength) {
+            return text;
+        }
+        int end = text.lastIndexOf(' ', maxLength - 1);
+        if (end <= 0) {
+            end = maxLength - 1;
+        }
+        return text.substring(0, end) + '\u2026';
+    }
+    
+    /**
+     * Count words in plain text.
+     * @param text plain text, as returned by {@link #toPlainText(String)}
+     */
+    public static int countWords(String text) {
+        final int len = text.length();
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0; i < len; ++i) {
+            final boolean letter = Character.isLetterOrDigit(text.charAt(i));
+            if (letter && !inWord) {
+                count++;
+            }
+            inWord = letter;
+        }
+        return count;
+    }
+    
+    /**
+     * Append attributes of a tag, without unsafe attributes.
+     * @param attrs tag content following the tag name
+     */
+    private static void appendSafeAttributes(StringBuilder buf, String attrs) {
+        final int len = attrs.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !isAttributeNameChar(attrs.charAt(i))) {
+                ++i;
+            }
+            final int nameStart = i;
+            while (i < len && isAttributeNameChar(attrs.charAt(i))) {
+                ++i;
+            }
+            if (nameStart == i) {
+                break;
+            }
+            final String name = attrs.substring(nameStart, i).toLowerCase();
+            
+            while (i < len && Character.isWhitespace(attrs.charAt(i))) {
+                ++i;
+            }
+            String value = null;
+            if (i < len && attrs.charAt(i) == '=') {
+                ++i;
+                while (i < len && Character.isWhitespace(attrs.charAt(i))) {
+                    ++i;
+                }
+                if (i < len && (attrs.charAt(i) == '"' || attrs.charAt(i) == '\'')) {
+                    final int end = attrs.indexOf(attrs.charAt(i), i + 1);
+                    value = attrs.substring(i + 1, end == -1 ? len : end);
+                    i = end == -1 ? len : end + 1;
+                } else {
+                    final int valueStart = i;
+                    while (i < len && !Character.isWhitespace(attrs.charAt(i))) {
+                        ++i;
+                    }
+                    value = attrs.substring(valueStart, i);
+                }
+            }
+            
+            if (name.startsWith("on")
+                    || (value != null && contains(URL_ATTRIBUTES, name) && !isSafeUrl(value))) {
+                continue;
+            }
+            buf.append(' ').append(name);
+            if (value != null) {
+                buf.append("=\"").append(value.replace("\"", "&quot;")).append('"');
+            }
+        }
+    }
+    
+    /**
+     * Find the bracket closing a tag. Brackets within quoted attribute values
+     * do not close the tag.
+     * @return the bracket index, or <code>-1</code> if the tag is not closed
+     */
+    private static int findTagEnd(String html, int index) {
+        final int len = html.length();
+        char quote = 0;
+        // Quotes only delimit a value following an equal sign.
+        boolean value = false;
+        for (int i = index; i < len; ++i) {
+            final char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '>') {
+                return i;
+            } else if (c == '=') {
+                value = true;
+            } else if (!Character.isWhitespace(c)) {
+                if (value && (c == '"' || c == '\'')) {
+                    quote = c;
+                }
+                value = false;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Check if a URL is relative, or if its scheme is allowed. The scheme is
+     * read as a browser reads it: entities are decoded, and control
+     * characters and whitespaces are ignored.
+     * @param url attribute value, with entities
+     */
+    private static boolean isSafeUrl(String url) {
+        final int len = url.length();
+        final StringBuilder scheme = new StringBuilder(16);
+        int i = 0;
+        while (i < len) {
+            char c = url.charAt(i++);
+            if (c == '&') {
+                final int end = findEntityEnd(url, i);
+                final int decoded = decodeEntity(url, i, end);
+                if (decoded == -1) {
+                    // An unknown entity could hide a scheme delimiter.
+                    return false;
+                }
+                c = (char) decoded;
+                i = end < len && url.charAt(end) == ';' ? end + 1 : end;
+            }
+            if (c <= ' ' || Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == ':') {
+                return contains(SAFE_URL_SCHEMES, scheme.toString().toLowerCase());
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                // This URL is relative.
+                return true;
+            }
+            scheme.append(c);
+        }
+        return true;
+    }
+    
+    /**
+     * Find the end of an entity name. Browsers decode numeric entities
+     * without the closing <code>;</code>.
+     * @param index index following <code>&amp;</code>
+     * @return the index following the entity name
+     */
+    private static int findEntityEnd(String html, int index) {
+        final int len = html.length();
+        int i = index;
+        int radix = 36;
+        if (i < len && html.charAt(i) == '#') {
+            ++i;
+            radix = 10;
+            if (i < len && (html.charAt(i) == 'x' || html.charAt(i) == 'X')) {
+                ++i;
+                radix = 16;
+            }
+        }
+        while (i < len && Character.digit(html.charAt(i), radix) != -1) {
+            ++i;
+        }
+        return i;
+    }
+    
+    private static boolean isAttributeNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':';
+    }
+    
+    private static boolean contains(String[] names, String name) {
+        for (final String n : names) {
+            if (n.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Find the lead image of an HTML document: the first <code>img</code>
+     * element with an absolute HTTP source. Images with a width or height of
+     * 1 pixel are skipped, since these are used for tracking readers.
+     * @return the image URL, or <code>null</code> if there is no image
+     */
+    public static String findLeadImage(String html) {
+        final int len = html.length();
+        for (int i = html.indexOf('<'); i != -1 && i < len; i = html.indexOf('<', i + 1)) {
+            if (!startsWithTag(html, i + 1, "img")) {
+                continue;
+            }
+            final int end = html.indexOf('>', i + 1);
+            if (end == -1) {
+                break;
+            }
+            final String tag = html.substring(i + 4, end);
+            i = end;
+            
+            if ("1".equals(getAttribute(tag, "width")) || "1".equals(getAttribute(tag, "height"))) {
+                continue;
+            }
+            final String src = getAttribute(tag, "src");
+            if (src != null && (src.startsWith("http://") || src.startsWith("https://"))) {
+                return src.replace("&amp;", "&");
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Get an attribute value from the content of a tag. Values may be quoted
+     * or not.
+     * @return the attribute value, or <code>null</code> if the tag has no
+     *         such attribute
+     */
+    private static String getAttribute(String tag, String name) {
+        final int len = tag.length();
+        final int nameLen = name.length();
+        for (int i = 0; i + nameLen < len; ++i) {
+            if (!tag.regionMatches(true, i, name, 0, nameLen)
+                    || (i != 0 && !Character.isWhitespace(tag.charAt(i - 1)))) {
+                continue;
+            }
+            int j = i + nameLen;
+            while (j < len && Character.isWhitespace(tag.charAt(j))) {
+                ++j;
+            }
+            if (j == len || tag.charAt(j) != '=') {
+                continue;
+            }
+            ++j;
+            while (j < len && Character.isWhitespace(tag.charAt(j))) {
+                ++j;
+            }
+            if (j == len) {
+                return "";
+            }
+            final char quote = tag.charAt(j);
+            if (quote == '"' || quote == '\'') {
+                final int end = tag.indexOf(quote, j + 1);
+                return tag.substring(j + 1, end == -1 ? len : end).trim();
+            }
+            int end = j;
+            while (end < len && !Character.isWhitespace(tag.charAt(end))) {
+                ++end;
+            }
+            // The slash closing an empty element is not part of the value.
+            if (end == len && end > j && tag.charAt(end - 1) == '/') {
+                --end;
+            }
+            return tag.substring(j, end);
+        }
+        return null;
+    }
+    
+    /**
+     * Check if a tag name starts at an index.
+     */
+    private static boolean startsWithTag(String html, int index, String tagName) {
+        final int end = index + tagName.length();
+        if (!html.regionMatches(true, index, tagName, 0, tagName.length())) {
+            return false;
+        }
+        return end == html.length() || !Character.isLetterOrDigit(html.charAt(end));
+    }
+    
+    /**
+     * Skip an element until its end tag.
+     * @return the index following the end tag
+     */
+    private static int skipElement(String html, int index, String endTag) {
+        final int len = html.length();
+        for (int i = index; i < len; ++i) {
+            if (html.charAt(i) == '<' && html.regionMatches(true, i, endTag, 0, endTag.length())) {
+                final int end = html.indexOf('>', i);
+                return end == -1 ? len : end + 1;
+            }
+        }
+        return len;
+    }
+    
+    /**
+     * Decode an entity, without its delimiters <code>&amp;</code> and
+     * <code>;</code>.
+     * @return the decoded character, or <code>-1</code> if the entity is
+     *         unknown
+     */
+    private static int decodeEntity(String html, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        if (html.charAt(start) == '#') {
+            int code;
+            try {
+                final char x = end - start > 1 ? html.charAt(start + 1) : 0;
+                if (x == 'x' || x == 'X') {
+                    code = Integer.parseInt(html.substring(start + 2, end), 16);
+                } else {
+                    code = Integer.parseInt(html.substring(start + 1, end));
+                }
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            return code <= 0 || code > Character.MAX_VALUE ? -1 : code;
+        }
+        
+        final String name = html.substring(start, end);
+        if ("amp".equals(name)) {
+            return '&';
+        } else if ("lt".equals(name)) {
+            return '<';
+        } else if ("gt".equals(name)) {
+            return '>';
+        } else if ("quot".equals(name)) {
+            return '"';
+        } else if ("apos".equals(name)) {
+            return '\'';
+        } else if ("nbsp".equals(name)) {
+            return '\u00a0';
+        }
+        return -1;
+    }
+}
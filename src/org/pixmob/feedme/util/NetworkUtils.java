@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Network utilities.
+ * @author Pixmob
+ */
+public final class NetworkUtils {
+    /**
+     * Ethernet network type, which is only defined since Honeycomb.
+     */
+    private static final int TYPE_ETHERNET = 9;
+    
+    private NetworkUtils() {
+    }
+    
+    /**
+     * Check if the device is connected to a network.
+     */
+    public static boolean isConnected(Context context) {
+        final NetworkInfo info = getActiveNetworkInfo(context);
+        return info != null && info.isConnected();
+    }
+    
+    /**
+     * Check if the device is connected to an unmetered network, such as Wi-Fi:
+     * large downloads should be restricted to these networks.
+     */
+    public static boolean isUnmeteredNetwork(Context context) {
+        final NetworkInfo info = getActiveNetworkInfo(context);
+        if (info == null || !info.isConnected()) {
+            return false;
+        }
+        final int type = info.getType();
+        return type == ConnectivityManager.TYPE_WIFI || type == TYPE_ETHERNET;
+    }
+    
+    private static NetworkInfo getActiveNetworkInfo(Context context) {
+        final ConnectivityManager cm = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        return cm == null ? null : cm.getActiveNetworkInfo();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Pixmob (http://github.com/pixmob)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pixmob.feedme.util;
+
+import static org.pixmob.feedme.Constants.TAG;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Preference utilities.
+ * @author Pixmob
+ */
+public final class PreferenceUtils {
+    private PreferenceUtils() {
+    }
+    
+    /**
+     * Get an integer preference, which is stored as a string by list and text
+     * preferences. A malformed value is ignored: the default value is
+     * returned instead.
+     */
+    public static int getInt(SharedPreferences prefs, String key, int defaultValue) {
+        final String value = prefs.getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid preference value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}